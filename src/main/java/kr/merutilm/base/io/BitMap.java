@@ -1,18 +1,20 @@
 package kr.merutilm.base.io;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
-import java.util.ArrayList;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.util.Arrays;
-import java.util.List;
 
 import kr.merutilm.base.exception.IllegalRenderStateException;
-import kr.merutilm.base.parallel.RenderState;
-import kr.merutilm.base.parallel.ShaderDispatcher;
 import kr.merutilm.base.struct.HexColor;
 import kr.merutilm.base.struct.IntMatrix;
-import kr.merutilm.base.struct.Point2D;
+import kr.merutilm.base.util.CanvasPool;
 
 public class BitMap extends IntMatrix {
 
@@ -31,7 +33,81 @@ public class BitMap extends IntMatrix {
         super(width, height);
     }
 
+    /**
+     * Creates the bitmap on an array borrowed from the pool. the pixels are not cleared.
+     */
+    public static BitMap borrow(CanvasPool pool, int width, int height){
+        return new BitMap(width, height, pool.borrowInt(width * height));
+    }
+
     
+    /**
+     * Creates the bitmap sharing the pixels of the image.
+     * When the image is {@link BufferedImage#TYPE_INT_ARGB} with a plain layout, the bitmap wraps its {@link DataBufferInt} without copying,
+     * so writing to either side is visible on the other.
+     * Any other image is converted into a new canvas.
+     */
+    public static BitMap wrap(BufferedImage image) {
+        int[] shared = sharedCanvas(image);
+        if (shared != null) {
+            return new BitMap(image.getWidth(), image.getHeight(), shared);
+        }
+        return fromImage(image);
+    }
+
+    /**
+     * Converts the image into a new bitmap. the pixels are always copied.
+     *
+     * @see RasterDecoder
+     */
+    public static BitMap fromImage(BufferedImage image) {
+        try {
+            return RasterDecoder.decode(image);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            int width = image.getWidth();
+            int height = image.getHeight();
+            return new BitMap(width, height, image.getRGB(0, 0, width, height, null, 0, width));
+        }
+    }
+
+    /**
+     * Gets the packed ARGB array of the image, when it can be shared as the canvas.
+     *
+     * @return the array, or {@code null} when the layout of the image differs from the canvas
+     */
+    private static int[] sharedCanvas(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        if (!(buffer instanceof DataBufferInt intBuffer) || intBuffer.getNumBanks() != 1 || intBuffer.getOffset() != 0
+            || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel model)
+            || model.getScanlineStride() != image.getWidth() || raster.getParent() != null
+            || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        int[] data = intBuffer.getData();
+        return data.length == image.getWidth() * image.getHeight() ? data : null;
+    }
+
+    /**
+     * Creates the {@link BufferedImage#TYPE_INT_ARGB} image backed by this canvas, without copying.
+     * Writing to either side is visible on the other, so the view can be drawn every frame with no conversion.
+     */
+    public BufferedImage toImageView() {
+        DirectColorModel model = (DirectColorModel) ColorModel.getRGBdefault();
+        DataBufferInt buffer = new DataBufferInt(canvas, canvas.length);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, model.getMasks(), null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    /**
+     * Copies the pixels into the new {@link BufferedImage#TYPE_4BYTE_ABGR} image.
+     *
+     * @see #toImageView()
+     */
     public BufferedImage getImage(){
 
         BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
@@ -88,181 +164,35 @@ public class BitMap extends IntMatrix {
         return HexColor.ratioDivide(cc1, cc2, py);
     }
 
+    /**
+     * Blurs the canvas in place. the alpha channel is blurred too, with the colors premultiplied by it.
+     * The blur always finishes, even if the current thread is interrupted meanwhile.
+     *
+     * @see GaussianBlur
+     */
     public static void gaussianBlur(int[] target, int width, int range) {
-        int[] bxs = boxesForGauss(range);
-        int[] result = new int[target.length];
-        int height = target.length / width;
-
-        int[] r = redChannels(target);
-        int[] g = greenChannels(target);
-        int[] b = blueChannels(target);
-
-        int[] rr = new int[target.length];
-        int[] rg = new int[target.length];
-        int[] rb = new int[target.length];
-
-
-        boxBlur(r, rr, width, height, (bxs[0] - 1) / 2);
-        boxBlur(rr, r, width, height, (bxs[1] - 1) / 2);
-        boxBlur(r, rr, width, height, (bxs[2] - 1) / 2);
-
-        boxBlur(g, rg, width, height, (bxs[0] - 1) / 2);
-        boxBlur(rg, g, width, height, (bxs[1] - 1) / 2);
-        boxBlur(g, rg, width, height, (bxs[2] - 1) / 2);
-
-        boxBlur(b, rb, width, height, (bxs[0] - 1) / 2);
-        boxBlur(rb, b, width, height, (bxs[1] - 1) / 2);
-        boxBlur(b, rb, width, height, (bxs[2] - 1) / 2);
-
-        for (int i = 0; i < target.length; i++) {
-            result[i] = HexColor.toInteger(rr[i], rg[i], rb[i]);
-        }
-        System.arraycopy(result, 0, target, 0, target.length);
-    }
-
-
-    private static void boxBlur(int[] target, int[] result, int w, int h, int r) {
-        int[] arr2 = new int[target.length];
-        boxBlurH(target, arr2, w, h, r);
-        boxBlurT(arr2, result, w, h, r);
-    }
-
-    private static void boxBlurH(int[] target, int[] result, int w, int h, int r) {
-        float irr = 1f / (r + r + 1);
-        for (int i = 0; i < h; i++) {
-            int ti = i * w;
-            int li = ti;
-            int ri = ti + r;
-            int fv = target[ti];
-            int lv = target[ti + w - 1];
-            int val = (r + 1) * fv;
-            for (int j = 0; j < r; j++) val += target[ti + j];
-            for (int j = 0; j <= r; j++) {
-                val += target[Math.min(target.length - 1, ri++)] - fv;
-                result[Math.min(target.length - 1, ti++)] = Math.round(val * irr);
-            }
-            for (int j = r + 1; j < w - r; j++) {
-                val += target[Math.min(target.length - 1, ri++)] - target[li++];
-                result[Math.min(target.length - 1, ti++)] = Math.round(val * irr);
-            }
-            for (int j = w - r; j < w; j++) {
-                val += lv - target[li++];
-                result[Math.min(target.length - 1, ti++)] = Math.round(val * irr);
-            }
-        }
-    }
-
-    private static void boxBlurT(int[] target, int[] result, int w, int h, int r) {
-        float irr = 1f / (r + r + 1);
-        for (int i = 0; i < w; i++) {
-            int ti = i;
-            int li = ti;
-            int ri = ti + r * w;
-            int fv = target[ti];
-            int lv = target[ti + w * (h - 1)];
-            int val = (r + 1) * fv;
-            for (int j = 0; j < r; j++) val += target[ti + j * w];
-            for (int j = 0; j <= r; j++) {
-                val += target[Math.min(target.length - 1, ri)] - fv;
-                result[Math.min(target.length - 1, ti)] = Math.round(val * irr);
-                ri += w;
-                ti += w;
-            }
-            for (int j = r + 1; j < h - r; j++) {
-                val += target[Math.min(target.length - 1, ri)] - target[li];
-                result[Math.min(target.length - 1, ti)] = Math.round(val * irr);
-                li += w;
-                ri += w;
-                ti += w;
-            }
-            for (int j = h - r; j < h; j++) {
-                val += lv - target[li];
-                result[Math.min(target.length - 1, ti)] = Math.round(val * irr);
-                li += w;
-                ti += w;
-            }
-        }
-    }
-
-    private static int[] boxesForGauss(double sigma)  // standard deviation, number of boxes
-    {
-        double wIdeal = Math.sqrt((4 * sigma * sigma) + 1);  // Ideal averaging filter width
-        int wl = (int) Math.floor(wIdeal);
-        if (wl % 2 == 0) {
-            wl--;
-        }
-        int wu = wl + 2;
-
-        double mIdeal = (12 * sigma * sigma - 3 * wl * wl - 12 * wl - 9) / (-4 * wl - 4);
-        int m = (int) Math.round(mIdeal);
-
-        int[] sizes = new int[3];
-        for (int i = 0; i < 3; i++) sizes[i] = (i < m ? wl : wu);
-        return sizes;
+        new GaussianBlur().applyUninterruptibly(target, width, range);
     }
 
      /**
      * 이미지에서 픽셀 값이 0인 부분의 색을 추론합니다
+     *
+     * @see PushPullInpainter
      */
     public BitMap imagine() throws IllegalRenderStateException, InterruptedException{
-        
-        BitMap imaginedCanvas = cloneCanvas();
-        int[] data = imaginedCanvas.getCanvas();
-        RenderState state = new RenderState();
-        int id = state.currentID();
-        List<Point2D> nonnullPixels = new ArrayList<>();
 
-        
-        for (int i = 0; i < imaginedCanvas.getLength(); i++) {
-            if(data[i] != 0){
-                nonnullPixels.add(convertLocation(i));
+        int nonnullPixels = 0;
+        for (int c : canvas) {
+            if (c != 0) {
+                nonnullPixels++;
             }
         }
-       
-        if(nonnullPixels.size() <= 1 || nonnullPixels.size() == data.length){
+
+        if(nonnullPixels <= 1 || nonnullPixels == canvas.length){
             return this;
         }
-        
-        ShaderDispatcher dispatcher = new ShaderDispatcher(state, id, imaginedCanvas);
-       
-        dispatcher.createRenderer((x, y, xr, yr, rx, ry, i, c, t) -> {
-            if(c != null){
-                return c;
-            }
-
-            double rs = 0;
-            double gs = 0;
-            double bs = 0;
-            double as = 0;
-            double ms = 0;
-
-
-            for (Point2D refP : nonnullPixels) {
-                double distance = refP.distance(new Point2D(x, y));
-                final double multiplier = Math.pow(0.80, distance);
-                HexColor refCol = dispatcher.texture2D(refP);
-                
-                rs += refCol.r() * multiplier;
-                gs += refCol.g() * multiplier;
-                bs += refCol.b() * multiplier;
-                as += refCol.a() * multiplier;  
-      
-                ms += multiplier;
-            }
 
-            rs /= ms;
-            gs /= ms;
-            bs /= ms;
-            as /= ms;
-
-        
-            return HexColor.get((int)rs, (int)gs, (int)bs, (int)as);
-        
-        });
-
-        dispatcher.dispatch();
-
-        return dispatcher.getBitMap();
+        return new PushPullInpainter().fill(this);
     }
 
     @Override
@@ -270,6 +200,11 @@ public class BitMap extends IntMatrix {
         return new BitMap(width, height, captureCurrentCanvas());
     }
 
+    @Override
+    public BitMap cloneCanvas(CanvasPool pool) {
+        return new BitMap(width, height, captureCurrentCanvas(pool));
+    }
+
     @Override
     public BitMap createAnother(int[] another) {
         return new BitMap(width, height, another);
@@ -1,7 +1,6 @@
 package kr.merutilm.base.io;
 
 import javax.annotation.Nonnull;
-import javax.imageio.ImageIO;
 
 import kr.merutilm.base.exception.IllegalRenderStateException;
 import kr.merutilm.base.parallel.RenderState;
@@ -33,40 +32,46 @@ public class BitMapImage {
      */
     private static final int MAX_SIZE = 4096;
 
+    /**
+     * Reads the image file with {@link ImageDecoder}.
+     */
     public BitMapImage(String filePath) throws IOException {
-        this(ImageIO.read(new File(filePath)));
+        this(ImageDecoder.read(new File(filePath)));
     }
 
     public BitMapImage(BufferedImage image) {
         this.image = image;
     }
 
-    public void export(File file) throws IOException{
-        ImageIO.write(image, "png", file);
+    /**
+     * Creates the image viewing the bitmap without copying.
+     *
+     * @see BitMap#toImageView()
+     */
+    public BitMapImage(BitMap bitMap) {
+        this.image = bitMap.toImageView();
+        this.bitMap = bitMap;
+        this.isRefreshed = true;
     }
 
-    private void refreshBitMap() {
-        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        final int width = image.getWidth();
-        final int height = image.getHeight();
-
-        HexColor[] canvas = new HexColor[width * height];
-
-
-        boolean alpha = image.getAlphaRaster() != null;
-        int pixelLength = alpha ? 4 : 3;
+    public void export(File file) throws IOException{
+        export(file, new PNGEncoder());
+    }
 
-        for (int pixel = 0; pixel + pixelLength <= pixels.length; pixel += pixelLength) {
-            int i = pixel / pixelLength;
-            int r = pixels[pixel + pixelLength - 1] & 0x00ff;
-            int g = pixels[pixel + pixelLength - 2] & 0x00ff;
-            int b = pixels[pixel + pixelLength - 3] & 0x00ff;
-            int a = alpha ? pixels[pixel] & 0x00ff : 255;
+    /**
+     * Exports the image as PNG with the encoder.
+     */
+    public void export(File file, PNGEncoder encoder) throws IOException{
+        encoder.write(getBitMap(), file);
+    }
 
-            canvas[i] = HexColor.get(r, g, b, a);
-            
-        }
-        this.bitMap = new BitMap(width, height, canvas);
+    /**
+     * 이미지를 픽셀 데이터로 변환합니다. {@link BufferedImage#TYPE_INT_ARGB} 이미지는 복사 없이 공유합니다.
+     *
+     * @see BitMap#wrap(BufferedImage)
+     */
+    private void refreshBitMap() {
+        this.bitMap = BitMap.wrap(image);
         isRefreshed = true;
     }
 
@@ -125,18 +130,18 @@ public class BitMapImage {
     }
 
     public void rotate(double rotation) {
-        isRefreshed = false;
-
-        int cx = image.getWidth() / 2;
-        int cy = image.getHeight() / 2;
-        int scale = (int) Math.hypot(image.getWidth(), image.getHeight());
+        rotate(rotation, Resampler.Filter.MITCHELL);
+    }
 
-        BufferedImage result = emptyImage(scale, scale);
-        Graphics2D g = (Graphics2D) result.getGraphics();
-        highGraphics(g);
-        g.rotate(Math.toRadians(rotation), scale / 2.0, scale / 2.0);
-        g.drawImage(image, scale / 2 - cx, scale / 2 - cy, null);
-        image = result;
+    /**
+     * Rotates the image clockwise around its center. the image is resized to the bounding box of the rotated image.
+     */
+    public void rotate(double rotation, Resampler.Filter filter) {
+        try {
+            setBitMap(new Resampler(filter).rotate(getBitMap(), rotation));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public static void highGraphics(Graphics2D g) {
@@ -159,6 +164,13 @@ public class BitMapImage {
     }
 
     public void scale(double mx, double my) {
+        scale(mx, my, Resampler.Filter.MITCHELL);
+    }
+
+    /**
+     * Scales the image with the filter. the negative multiplier flips the image.
+     */
+    public void scale(double mx, double my, Resampler.Filter filter) {
         isRefreshed = false;
 
         int w = (int) (image.getWidth() * mx);
@@ -182,13 +194,17 @@ public class BitMapImage {
             flipY();
         }
 
-        BufferedImage result = emptyImage(w, h);
-
-        Graphics2D g = result.createGraphics();
-        highGraphics(g);
-        g.drawImage(image, 0, 0, w, h, null);
+        try {
+            setBitMap(new Resampler(filter).resize(getBitMap(), w, h));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        image = result;
+    private void setBitMap(BitMap bitMap) {
+        this.bitMap = bitMap;
+        this.image = bitMap.toImageView();
+        this.isRefreshed = true;
     }
 
     private static double rescale(int w, int h) {
@@ -244,7 +260,19 @@ public class BitMapImage {
         return image;
     }
 
+    /**
+     * Gets the accuracy percentage of the images, the alpha weighted absolute difference of the color channels subtracted from 100.
+     * The images other than {@link BufferedImage#TYPE_4BYTE_ABGR}, such as the views of {@link BitMap}, are compared by {@link ImageMetrics#accuracy(BitMap, BitMap)}.
+     */
     public static double accuracy(BufferedImage i1, BufferedImage i2) {
+        if (!isABGR(i1) || !isABGR(i2)) {
+            try {
+                return ImageMetrics.accuracy(BitMap.wrap(i1), BitMap.wrap(i2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return accuracy(toABGR(i1), toABGR(i2));
+            }
+        }
         final byte[] p1 = ((DataBufferByte) i1.getRaster().getDataBuffer()).getData();
         final byte[] p2 = ((DataBufferByte) i2.getRaster().getDataBuffer()).getData();
         if (i1.getAlphaRaster() == null || i2.getAlphaRaster() == null) {
@@ -273,8 +301,11 @@ public class BitMapImage {
         return err;
     }
 
+    /**
+     * Multiplies every channel of the image by the color, into the new {@link BufferedImage#TYPE_4BYTE_ABGR} image.
+     */
     public static BufferedImage color(BufferedImage image, HexColor color) {
-
+        image = toABGR(image);
         final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
         if (image.getAlphaRaster() == null) {
             throw new IllegalArgumentException("hasn't Alpha");
@@ -306,6 +337,17 @@ public class BitMapImage {
         return buffer;
     }
 
+    private static boolean isABGR(BufferedImage image) {
+        return image.getType() == BufferedImage.TYPE_4BYTE_ABGR && image.getRaster().getDataBuffer() instanceof DataBufferByte;
+    }
+
+    /**
+     * Gets the image as it is if it is {@link BufferedImage#TYPE_4BYTE_ABGR}, otherwise its copy converted to it.
+     */
+    private static BufferedImage toABGR(BufferedImage image) {
+        return isABGR(image) ? image : BitMap.wrap(image).getImage();
+    }
+
     public static void checkDivision(int length, int width) {
         if (length % width != 0) {
             throw new IllegalArgumentException("Indivisible Array Length");
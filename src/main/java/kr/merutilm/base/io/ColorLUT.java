@@ -0,0 +1,352 @@
+package kr.merutilm.base.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * 3D color lookup table, for applying any chain of color operations to a {@link BitMap} in one pass.
+ * <p>
+ * The table is a lattice of {@code size^3} RGB outputs in [0, 1], with red changing fastest, the same as the .cube format.
+ * It is baked from the color operations once, then applied in parallel by rows with trilinear or tetrahedral interpolation.
+ * The alpha of the pixels is kept.
+ */
+public final class ColorLUT {
+
+    public static final int MIN_SIZE = 2;
+    public static final int MAX_SIZE = 256;
+
+    public enum Interpolation {
+        /**
+         * Interpolates the eight corners of the lattice cell.
+         */
+        TRILINEAR,
+        /**
+         * Interpolates the four corners of the tetrahedron containing the color. keeps the gray axis exact.
+         */
+        TETRAHEDRAL
+    }
+
+    private final int size;
+    private final float[] table;
+    private final String title;
+    private final float[] domainMin;
+    private final float[] domainMax;
+
+    private ColorLUT(int size, float[] table, String title, float[] domainMin, float[] domainMax) {
+        this.size = size;
+        this.table = table;
+        this.title = title;
+        this.domainMin = domainMin;
+        this.domainMax = domainMax;
+    }
+
+    /**
+     * Creates the table from the lattice outputs.
+     *
+     * @param size  the number of the lattice points per channel
+     * @param table the RGB outputs in [0, 1], {@code 3 * size^3} values with red changing fastest
+     */
+    public ColorLUT(int size, float[] table) {
+        this(size, table, null, new float[]{0, 0, 0}, new float[]{1, 1, 1});
+        checkSize(size);
+        if (table.length != 3 * size * size * size) {
+            throw new IllegalArgumentException("Length mismatch : " + size + "^3 * 3, but the provided array length is " + table.length);
+        }
+    }
+
+    public static ColorLUT identity(int size) throws InterruptedException {
+        return bakeInteger(size, c -> c);
+    }
+
+    /**
+     * Bakes the color operation, such as the chain of blend, grayscale and functions of {@link HexColor}.
+     * The operation is called once per lattice point, in parallel.
+     *
+     * @param size  the number of the lattice points per channel. 33 is enough for most gradings
+     * @param grade the color operation. the input is opaque
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static ColorLUT bake(int size, UnaryOperator<HexColor> grade) throws InterruptedException {
+        return bakeInteger(size, c -> grade.apply(HexColor.fromInteger(c)).toInteger());
+    }
+
+    /**
+     * Bakes the color operation of the packed ARGB colors.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     * @see #bake(int, UnaryOperator)
+     */
+    public static ColorLUT bakeInteger(int size, IntUnaryOperator grade) throws InterruptedException {
+        checkSize(size);
+        float[] table = new float[3 * size * size * size];
+        ParallelRange.run(size, (s, e) -> {
+            for (int b = s; b < e; b++) {
+                for (int g = 0; g < size; g++) {
+                    for (int r = 0; r < size; r++) {
+                        int c = grade.applyAsInt(HexColor.toInteger(lattice(r, size), lattice(g, size), lattice(b, size)));
+                        int i = 3 * (r + size * (g + size * b));
+                        table[i] = HexColor.intR(c) / 255f;
+                        table[i + 1] = HexColor.intG(c) / 255f;
+                        table[i + 2] = HexColor.intB(c) / 255f;
+                    }
+                }
+            }
+        });
+        return new ColorLUT(size, table);
+    }
+
+    private static int lattice(int i, int size) {
+        return (int) Math.round(i * 255.0 / (size - 1));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Loads the .cube file. only 3D tables are supported.
+     *
+     * @throws IOException When the file is not a valid 3D .cube file
+     */
+    public static ColorLUT load(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    public static ColorLUT read(BufferedReader reader) throws IOException {
+        String title = null;
+        int size = -1;
+        float[] domainMin = {0, 0, 0};
+        float[] domainMax = {1, 1, 1};
+        float[] table = null;
+        int count = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            try {
+                switch (tokens[0]) {
+                    case "TITLE" -> title = line.substring(5).trim().replace("\"", "");
+                    case "LUT_3D_SIZE" -> {
+                        size = Integer.parseInt(tokens[1]);
+                        checkSize(size);
+                        table = new float[3 * size * size * size];
+                    }
+                    case "LUT_1D_SIZE" -> throw new IOException("1D LUT is not supported");
+                    case "DOMAIN_MIN" -> domainMin = parseTriple(tokens);
+                    case "DOMAIN_MAX" -> domainMax = parseTriple(tokens);
+                    default -> {
+                        if (table == null) {
+                            throw new IOException("LUT_3D_SIZE must precede the table : " + line);
+                        }
+                        if (count >= table.length) {
+                            throw new IOException("too many table entries");
+                        }
+                        float[] entry = parseTriple(tokens);
+                        System.arraycopy(entry, 0, table, count, 3);
+                        count += 3;
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("invalid .cube line : " + line, e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        if (table == null || count != table.length) {
+            throw new IOException("incomplete .cube table : " + count / 3 + " entries");
+        }
+        for (int c = 0; c < 3; c++) {
+            if (domainMax[c] <= domainMin[c]) {
+                throw new IOException("invalid domain : " + Arrays.toString(domainMin) + " - " + Arrays.toString(domainMax));
+            }
+        }
+        return new ColorLUT(size, table, title, domainMin, domainMax);
+    }
+
+    private static float[] parseTriple(String[] tokens) {
+        int offset = tokens.length - 3;
+        return new float[]{Float.parseFloat(tokens[offset]), Float.parseFloat(tokens[offset + 1]), Float.parseFloat(tokens[offset + 2])};
+    }
+
+    public void save(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            write(writer);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        if (title != null) {
+            writer.write("TITLE \"" + title + "\"\n");
+        }
+        writer.write("LUT_3D_SIZE " + size + "\n");
+        if (!Arrays.equals(domainMin, new float[]{0, 0, 0}) || !Arrays.equals(domainMax, new float[]{1, 1, 1})) {
+            writer.write(String.format(Locale.ROOT, "DOMAIN_MIN %.6f %.6f %.6f\n", domainMin[0], domainMin[1], domainMin[2]));
+            writer.write(String.format(Locale.ROOT, "DOMAIN_MAX %.6f %.6f %.6f\n", domainMax[0], domainMax[1], domainMax[2]));
+        }
+        for (int i = 0; i < table.length; i += 3) {
+            writer.write(String.format(Locale.ROOT, "%.6f %.6f %.6f\n", table[i], table[i + 1], table[i + 2]));
+        }
+    }
+
+    /**
+     * Applies the table to the bitmap.
+     *
+     * @return the new graded bitmap
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public BitMap apply(BitMap bitMap, Interpolation interpolation) throws InterruptedException {
+        int[] result = new int[bitMap.getLength()];
+        apply(bitMap.getCanvas(), result, bitMap.getWidth(), interpolation);
+        return bitMap.createAnother(result);
+    }
+
+    /**
+     * Applies the table from the source canvas to the target canvas, which can be the same array.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public void apply(int[] source, int[] target, int width, Interpolation interpolation) throws InterruptedException {
+        BitMapImage.checkDivision(source.length, width);
+        if (target.length < source.length) {
+            throw new IllegalArgumentException("Length mismatch : " + source.length + ", but the provided array length is " + target.length);
+        }
+
+        // the lattice cell and the position in it of every channel value
+        int[][] index = new int[3][256];
+        float[][] fraction = new float[3][256];
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 256; v++) {
+                float p = (v / 255f - domainMin[c]) / (domainMax[c] - domainMin[c]) * (size - 1);
+                p = Math.max(0, Math.min(size - 1, p));
+                int i = Math.min(size - 2, (int) p);
+                index[c][v] = i;
+                fraction[c][v] = p - i;
+            }
+        }
+        boolean tetrahedral = interpolation == Interpolation.TETRAHEDRAL;
+
+        ParallelRange.run(source.length / width, (s, e) -> {
+            float[] rgb = new float[3];
+            for (int i = s * width; i < e * width; i++) {
+                int c = source[i];
+                int rv = c >> 16 & 0xff;
+                int gv = c >> 8 & 0xff;
+                int bv = c & 0xff;
+                int base = 3 * (index[0][rv] + size * (index[1][gv] + size * index[2][bv]));
+                float fr = fraction[0][rv];
+                float fg = fraction[1][gv];
+                float fb = fraction[2][bv];
+                if (tetrahedral) {
+                    tetrahedral(base, fr, fg, fb, rgb);
+                } else {
+                    trilinear(base, fr, fg, fb, rgb);
+                }
+                target[i] = c & 0xff000000 | channel(rgb[0]) << 16 | channel(rgb[1]) << 8 | channel(rgb[2]);
+            }
+        });
+    }
+
+    private void trilinear(int base, float fr, float fg, float fb, float[] rgb) {
+        int dr = 3;
+        int dg = 3 * size;
+        int db = 3 * size * size;
+        for (int k = 0; k < 3; k++) {
+            int p = base + k;
+            float c00 = lerp(table[p], table[p + dr], fr);
+            float c10 = lerp(table[p + dg], table[p + dg + dr], fr);
+            float c01 = lerp(table[p + db], table[p + db + dr], fr);
+            float c11 = lerp(table[p + db + dg], table[p + db + dg + dr], fr);
+            rgb[k] = lerp(lerp(c00, c10, fg), lerp(c01, c11, fg), fb);
+        }
+    }
+
+    private void tetrahedral(int base, float fr, float fg, float fb, float[] rgb) {
+        int dr = 3;
+        int dg = 3 * size;
+        int db = 3 * size * size;
+        // the corners walked from black to white of the cell, by the order of the fractions
+        int first;
+        int second;
+        float f1;
+        float f2;
+        float f3;
+        if (fr >= fg) {
+            if (fg >= fb) {
+                first = dr;
+                second = dr + dg;
+                f1 = fr;
+                f2 = fg;
+                f3 = fb;
+            } else if (fr >= fb) {
+                first = dr;
+                second = dr + db;
+                f1 = fr;
+                f2 = fb;
+                f3 = fg;
+            } else {
+                first = db;
+                second = db + dr;
+                f1 = fb;
+                f2 = fr;
+                f3 = fg;
+            }
+        } else {
+            if (fb >= fg) {
+                first = db;
+                second = db + dg;
+                f1 = fb;
+                f2 = fg;
+                f3 = fr;
+            } else if (fb >= fr) {
+                first = dg;
+                second = dg + db;
+                f1 = fg;
+                f2 = fb;
+                f3 = fr;
+            } else {
+                first = dg;
+                second = dg + dr;
+                f1 = fg;
+                f2 = fr;
+                f3 = fb;
+            }
+        }
+        int last = dr + dg + db;
+        for (int k = 0; k < 3; k++) {
+            int p = base + k;
+            rgb[k] = (1 - f1) * table[p] + (f1 - f2) * table[p + first] + (f2 - f3) * table[p + second] + f3 * table[p + last];
+        }
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static int channel(float v) {
+        return Math.max(0, Math.min(255, Math.round(v * 255)));
+    }
+
+    private static void checkSize(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("invalid LUT size : " + size);
+        }
+    }
+}
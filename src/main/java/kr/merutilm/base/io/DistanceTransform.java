@@ -0,0 +1,221 @@
+package kr.merutilm.base.io;
+
+import java.util.Arrays;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.DoubleMatrix;
+import kr.merutilm.base.struct.IntMatrix;
+
+/**
+ * Exact Euclidean distance transform, the distance from every pixel to the nearest set pixel of a mask.
+ * <p>
+ * The transform is separable, after Felzenszwalb and Huttenlocher.
+ * The column pass finds the nearest set pixel of every column in two scans, in parallel by column strips,
+ * and the row pass takes the lower envelope of the parabolas of the column distances, in parallel by rows.
+ * Both passes are linear, so the whole transform costs O(n) regardless of the distances.
+ * The pixels are infinitely far when the mask has no set pixel.
+ */
+public final class DistanceTransform {
+    private DistanceTransform() {
+
+    }
+
+    /**
+     * The number of columns processed together in the column pass.
+     */
+    private static final int COLUMN_STRIP = 64;
+
+    /**
+     * @param distance the distance of every pixel
+     * @param nearest  the index of the nearest set pixel of every pixel, -1 if none. null if not requested
+     */
+    public record Result(DoubleMatrix distance, IntMatrix nearest) {
+
+    }
+
+    public static DoubleMatrix of(BitMap bitMap, IntPredicate set) throws InterruptedException {
+        return transform(mask(bitMap, set), bitMap.getWidth(), bitMap.getHeight(), false).distance();
+    }
+
+    public static DoubleMatrix of(DoubleMatrix matrix, DoublePredicate set) throws InterruptedException {
+        return transform(mask(matrix, set), matrix.getWidth(), matrix.getHeight(), false).distance();
+    }
+
+    public static Result withNearest(BitMap bitMap, IntPredicate set) throws InterruptedException {
+        return transform(mask(bitMap, set), bitMap.getWidth(), bitMap.getHeight(), true);
+    }
+
+    public static Result withNearest(DoubleMatrix matrix, DoublePredicate set) throws InterruptedException {
+        return transform(mask(matrix, set), matrix.getWidth(), matrix.getHeight(), true);
+    }
+
+    /**
+     * Computes the signed distance, positive outside the set pixels and negative inside, such as for the distance field of the glyphs.
+     * The boundary lies halfway between a set pixel and an unset pixel.
+     */
+    public static DoubleMatrix signed(BitMap bitMap, IntPredicate set) throws InterruptedException {
+        boolean[] mask = mask(bitMap, set);
+        boolean[] inverse = new boolean[mask.length];
+        for (int i = 0; i < mask.length; i++) {
+            inverse[i] = !mask[i];
+        }
+        int width = bitMap.getWidth();
+        int height = bitMap.getHeight();
+        double[] outside = transform(mask, width, height, false).distance().getCanvas();
+        double[] inside = transform(inverse, width, height, false).distance().getCanvas();
+        double[] result = new double[mask.length];
+        ParallelRange.run(mask.length, (s, e) -> {
+            for (int i = s; i < e; i++) {
+                result[i] = mask[i] ? 0.5 - inside[i] : outside[i] - 0.5;
+            }
+        });
+        return new DoubleMatrix(width, height, result);
+    }
+
+    private static boolean[] mask(BitMap bitMap, IntPredicate set) throws InterruptedException {
+        int[] canvas = bitMap.getCanvas();
+        boolean[] mask = new boolean[canvas.length];
+        ParallelRange.run(canvas.length, (s, e) -> {
+            for (int i = s; i < e; i++) {
+                mask[i] = set.test(canvas[i]);
+            }
+        });
+        return mask;
+    }
+
+    private static boolean[] mask(DoubleMatrix matrix, DoublePredicate set) throws InterruptedException {
+        double[] canvas = matrix.getCanvas();
+        boolean[] mask = new boolean[canvas.length];
+        ParallelRange.run(canvas.length, (s, e) -> {
+            for (int i = s; i < e; i++) {
+                mask[i] = set.test(canvas[i]);
+            }
+        });
+        return mask;
+    }
+
+    /**
+     * Computes the distance transform of the mask.
+     *
+     * @param mask    the set pixels, {@code width * height} long
+     * @param nearest whether to find the index of the nearest set pixel of every pixel
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static Result transform(boolean[] mask, int width, int height, boolean nearest) throws InterruptedException {
+        if (mask.length != width * height) {
+            throw new IllegalArgumentException("Length mismatch : " + width + "x" + height + ", but the provided array length is " + mask.length);
+        }
+        // the squared distance to the nearest set pixel of the same column, and its row
+        double[] column = new double[mask.length];
+        int[] rows = nearest ? new int[mask.length] : null;
+
+        ParallelRange.run((width - 1) / COLUMN_STRIP + 1, (s, e) -> {
+            for (int x0 = s * COLUMN_STRIP; x0 < Math.min(e * COLUMN_STRIP, width); x0 += COLUMN_STRIP) {
+                columns(mask, column, rows, width, height, x0, Math.min(x0 + COLUMN_STRIP, width));
+            }
+        });
+
+        double[] distance = new double[mask.length];
+        int[] indices = nearest ? new int[mask.length] : null;
+
+        ParallelRange.run(height, (s, e) -> {
+            double[] f = new double[width];
+            int[] v = new int[width];
+            double[] z = new double[width + 1];
+            for (int y = s; y < e; y++) {
+                int row = y * width;
+                System.arraycopy(column, row, f, 0, width);
+                envelope(f, v, z, width, distance, indices, rows, row);
+            }
+        });
+
+        return new Result(new DoubleMatrix(width, height, distance), nearest ? new IntMatrix(width, height, indices) : null);
+    }
+
+    private static void columns(boolean[] mask, double[] column, int[] rows, int width, int height, int x0, int x1) {
+        int strip = x1 - x0;
+        int[] last = new int[strip];
+        Arrays.fill(last, -1);
+        for (int y = 0; y < height; y++) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * width + x;
+                if (mask[i]) {
+                    last[x - x0] = y;
+                }
+                int l = last[x - x0];
+                column[i] = l < 0 ? Double.POSITIVE_INFINITY : (double) (y - l) * (y - l);
+                if (rows != null) {
+                    rows[i] = l;
+                }
+            }
+        }
+        Arrays.fill(last, -1);
+        for (int y = height - 1; y >= 0; y--) {
+            for (int x = x0; x < x1; x++) {
+                int i = y * width + x;
+                if (mask[i]) {
+                    last[x - x0] = y;
+                }
+                int l = last[x - x0];
+                if (l >= 0) {
+                    double d = (double) (l - y) * (l - y);
+                    if (d < column[i]) {
+                        column[i] = d;
+                        if (rows != null) {
+                            rows[i] = l;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the lower envelope of the parabolas {@code (x - q)^2 + f(q)} of the row, skipping the infinite ones.
+     */
+    private static void envelope(double[] f, int[] v, double[] z, int width, double[] distance, int[] indices, int[] rows, int row) {
+        int k = -1;
+        for (int q = 0; q < width; q++) {
+            if (f[q] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double fq = f[q] + (double) q * q;
+            double s = Double.NEGATIVE_INFINITY;
+            while (k >= 0) {
+                int p = v[k];
+                s = (fq - (f[p] + (double) p * p)) / (2.0 * (q - p));
+                if (s > z[k]) {
+                    break;
+                }
+                k--;
+            }
+            k++;
+            v[k] = q;
+            z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+            z[k + 1] = Double.POSITIVE_INFINITY;
+        }
+
+        if (k < 0) {
+            Arrays.fill(distance, row, row + width, Double.POSITIVE_INFINITY);
+            if (indices != null) {
+                Arrays.fill(indices, row, row + width, -1);
+            }
+            return;
+        }
+
+        int j = 0;
+        for (int x = 0; x < width; x++) {
+            while (z[j + 1] < x) {
+                j++;
+            }
+            int q = v[j];
+            double dx = x - q;
+            distance[row + x] = Math.sqrt(dx * dx + f[q]);
+            if (indices != null) {
+                indices[row + x] = rows[row + q] * width + q;
+            }
+        }
+    }
+}
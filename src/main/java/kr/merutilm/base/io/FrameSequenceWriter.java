@@ -0,0 +1,364 @@
+package kr.merutilm.base.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the rendered frames in the background, so the render thread does not wait for the encoding and the disk.
+ * <p>
+ * The frames are encoded on a pool of threads, and written strictly in the order of submission by whichever thread finishes the next one.
+ * At most {@code capacity} frames are in flight, and {@link #submit(BitMap)} blocks only when all of them are taken.
+ * A submitted frame must not be modified until it is written.
+ */
+public final class FrameSequenceWriter implements Closeable {
+
+    /**
+     * The output format of the frames.
+     */
+    public interface Format {
+        /**
+         * Encodes the frame. called by the pool threads at once.
+         */
+        byte[] encode(BitMap frame, int index) throws IOException;
+
+        /**
+         * Writes the encoded frame. called in the order of the frames, one at a time.
+         */
+        void write(byte[] data, int index) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    private final Format format;
+    private final ExecutorService pool;
+    private final Semaphore slots;
+    private final int capacity;
+    private final Map<Integer, byte[]> encoded = new HashMap<>();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private int nextWrite = 0;
+    private long startNanos = -1;
+    private long endNanos = -1;
+    private boolean closed = false;
+
+    /**
+     * @param format   the output format
+     * @param threads  the number of the encoding threads
+     * @param capacity the maximum number of the frames submitted but not written yet
+     */
+    public FrameSequenceWriter(Format format, int threads, int capacity) {
+        checkPool(threads, capacity);
+        this.format = format;
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity);
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "frame-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void checkPool(int threads, int capacity) {
+        if (threads <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("invalid threads or capacity : " + threads + ", " + capacity);
+        }
+    }
+
+    /**
+     * Creates the writer of the numbered PNG files, such as {@code prefix00000.png}.
+     */
+    public static FrameSequenceWriter pngSequence(File directory, String prefix, PNGEncoder encoder, int threads, int capacity) throws IOException {
+        Files.createDirectories(directory.toPath());
+        return new FrameSequenceWriter(new Format() {
+            @Override
+            public byte[] encode(BitMap frame, int index) throws IOException {
+                return encoder.encode(frame);
+            }
+
+            @Override
+            public void write(byte[] data, int index) throws IOException {
+                Files.write(new File(directory, String.format("%s%05d.png", prefix, index)).toPath(), data);
+            }
+
+            @Override
+            public void close() {
+                // every frame is its own file
+            }
+        }, threads, capacity);
+    }
+
+    /**
+     * Creates the writer of the uncompressed YUV4MPEG2 video, full range BT.601 4:2:0.
+     */
+    public static FrameSequenceWriter y4m(File file, int width, int height, int fps, int threads, int capacity) throws IOException {
+        if (width <= 0 || height <= 0 || fps <= 0) {
+            throw new IllegalArgumentException("invalid video : " + width + "x" + height + " " + fps + "fps");
+        }
+        checkPool(threads, capacity);
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+        try {
+            stream.write(String.format("YUV4MPEG2 W%d H%d F%d:1 Ip A1:1 C420jpeg XCOLORRANGE=FULL\n", width, height, fps).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        return new FrameSequenceWriter(new Format() {
+            @Override
+            public byte[] encode(BitMap frame, int index) {
+                if (frame.getWidth() != width || frame.getHeight() != height) {
+                    throw new IllegalArgumentException("Size mismatch : " + width + "x" + height + ", but the frame is " + frame.getWidth() + "x" + frame.getHeight());
+                }
+                return toYUV420(frame);
+            }
+
+            @Override
+            public void write(byte[] data, int index) throws IOException {
+                stream.write("FRAME\n".getBytes(StandardCharsets.US_ASCII));
+                stream.write(data);
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        }, threads, capacity);
+    }
+
+    /**
+     * Submits the frame, blocking while the writer already holds the maximum number of the frames.
+     *
+     * @throws IOException           When encoding or writing any previous frame failed
+     * @throws InterruptedException  When the current thread is interrupted while waiting
+     * @throws IllegalStateException When the writer is closed
+     */
+    public void submit(BitMap frame) throws IOException, InterruptedException {
+        checkFailure();
+        checkOpen();
+        slots.acquire();
+        // the pool is shut down only under the same lock, so a frame is never handed to a closed pool
+        synchronized (this) {
+            if (closed) {
+                slots.release();
+                throw new IllegalStateException("the writer is closed");
+            }
+            if (startNanos < 0) {
+                startNanos = System.nanoTime();
+            }
+            int index = submitted.getAndIncrement();
+            pool.execute(() -> encode(frame, index));
+        }
+    }
+
+    private synchronized void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("the writer is closed");
+        }
+    }
+
+    private void encode(BitMap frame, int index) {
+        byte[] data = null;
+        try {
+            if (failure.get() == null) {
+                long start = System.nanoTime();
+                data = format.encode(frame, index);
+                encodeNanos.addAndGet(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, new IOException("failed to encode the frame " + index, e));
+        } finally {
+            // every index must arrive, or the frames after it are never written
+            publish(index, data);
+        }
+    }
+
+    private void publish(int index, byte[] data) {
+        synchronized (encoded) {
+            encoded.put(index, data == null ? new byte[0] : data);
+            // write every frame ready in order, then release their slots
+            byte[] next;
+            while ((next = encoded.remove(nextWrite)) != null) {
+                if (failure.get() == null) {
+                    try {
+                        format.write(next, nextWrite);
+                        written.incrementAndGet();
+                        writtenBytes.addAndGet(next.length);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, new IOException("failed to write the frame " + nextWrite, e));
+                    }
+                }
+                nextWrite++;
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Waits until every submitted frame is written, and closes the output.
+     * The output is closed only after every encoding thread has finished.
+     *
+     * @throws IOException            When encoding or writing any frame failed
+     * @throws InterruptedIOException When the current thread is interrupted while waiting. the frames not written yet are dropped
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pool.shutdown();
+        }
+        boolean interrupted = false;
+        try {
+            slots.acquire(capacity);
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+            pool.shutdownNow();
+            awaitTermination();
+        } finally {
+            synchronized (this) {
+                endNanos = System.nanoTime();
+            }
+            format.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while closing, " + (submitted.get() - written.get()) + " frames not written");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits until the running frames finish after {@link ExecutorService#shutdownNow()}, as they may be writing to the output.
+     */
+    private void awaitTermination() {
+        while (true) {
+            try {
+                if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException ignored) {
+                // the interrupt status is restored by close()
+            }
+        }
+    }
+
+    public int getSubmittedFrames() {
+        return submitted.get();
+    }
+
+    public long getWrittenFrames() {
+        return written.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * Gets the number of the frames submitted but not written yet.
+     */
+    public int getPendingFrames() {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * Gets the written frames per second, from the first submission to now or to the close.
+     */
+    public synchronized double getFramesPerSecond() {
+        if (startNanos < 0) {
+            return 0;
+        }
+        long end = endNanos < 0 ? System.nanoTime() : endNanos;
+        return written.get() * 1e9 / Math.max(1, end - startNanos);
+    }
+
+    /**
+     * Gets the encoded frames per second of one encoding thread, excluding the waiting and the writing.
+     */
+    public double getEncodeFramesPerSecond() {
+        long nanos = encodeNanos.get();
+        return nanos == 0 ? 0 : written.get() * 1e9 / nanos;
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw new IOException("failed to write the frames", e);
+        }
+    }
+
+    /**
+     * Converts the frame to the planar full range BT.601 Y, Cb, Cr, with the chroma averaged over 2x2 pixels.
+     */
+    static byte[] toYUV420(BitMap frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int cw = (width + 1) / 2;
+        int ch = (height + 1) / 2;
+        int[] canvas = frame.getCanvas();
+        byte[] data = new byte[width * height + 2 * cw * ch];
+        int cbOffset = width * height;
+        int crOffset = cbOffset + cw * ch;
+
+        for (int i = 0; i < canvas.length; i++) {
+            int c = canvas[i];
+            int r = c >> 16 & 0xff;
+            int g = c >> 8 & 0xff;
+            int b = c & 0xff;
+            data[i] = (byte) ((19595 * r + 38470 * g + 7471 * b + 32768) >> 16);
+        }
+        for (int cy = 0; cy < ch; cy++) {
+            for (int cx = 0; cx < cw; cx++) {
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                int n = 0;
+                for (int y = cy * 2; y < Math.min(height, cy * 2 + 2); y++) {
+                    for (int x = cx * 2; x < Math.min(width, cx * 2 + 2); x++) {
+                        int c = canvas[y * width + x];
+                        r += c >> 16 & 0xff;
+                        g += c >> 8 & 0xff;
+                        b += c & 0xff;
+                        n++;
+                    }
+                }
+                double rr = (double) r / n;
+                double gg = (double) g / n;
+                double bb = (double) b / n;
+                int i = cy * cw + cx;
+                data[cbOffset + i] = (byte) clamp(128 - 0.168736 * rr - 0.331264 * gg + 0.5 * bb);
+                data[crOffset + i] = (byte) clamp(128 + 0.5 * rr - 0.418688 * gg - 0.081312 * bb);
+            }
+        }
+        return data;
+    }
+
+    private static int clamp(double v) {
+        return Math.max(0, Math.min(255, (int) Math.round(v)));
+    }
+}
@@ -0,0 +1,219 @@
+package kr.merutilm.base.io;
+
+import java.util.Arrays;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * Gaussian blur of packed ARGB pixels, approximated by three box blurs.
+ * <p>
+ * All four channels are blurred together on the packed ints, in place, with one reusable scratch buffer.
+ * The horizontal passes run in parallel by rows, and the vertical passes in parallel by column strips.
+ * Straight alpha input is premultiplied during the blur, so transparent pixels do not darken their neighbors.
+ * The instance keeps its scratch buffer between calls, and can be used by one thread at a time.
+ */
+public final class GaussianBlur {
+
+    /**
+     * The number of columns processed together in the vertical pass.
+     */
+    private static final int COLUMN_STRIP = 64;
+    /**
+     * The fixed-point precision of the reciprocal of the box width.
+     */
+    private static final int SHIFT = 22;
+
+    private final boolean premultiplied;
+    private int[] scratch = new int[0];
+
+    /**
+     * @param premultiplied whether the input is already premultiplied by alpha. if false, it is premultiplied during the blur
+     */
+    public GaussianBlur(boolean premultiplied) {
+        this.premultiplied = premultiplied;
+    }
+
+    public GaussianBlur() {
+        this(false);
+    }
+
+    public void apply(BitMap bitMap, double sigma) throws InterruptedException {
+        apply(bitMap.getCanvas(), bitMap.getWidth(), sigma);
+    }
+
+    /**
+     * Blurs the packed ARGB canvas in place.
+     *
+     * @param canvas the canvas
+     * @param width  the width of the canvas
+     * @param sigma  the standard deviation
+     * @throws InterruptedException When the current thread is interrupted while waiting. the canvas is left partially blurred
+     */
+    public synchronized void apply(int[] canvas, int width, double sigma) throws InterruptedException {
+        apply(canvas, width, sigma, true);
+    }
+
+    /**
+     * Blurs the packed ARGB canvas in place, finishing every pass even if the current thread is interrupted.
+     * The interrupt status is kept for the caller.
+     *
+     * @param canvas the canvas
+     * @param width  the width of the canvas
+     * @param sigma  the standard deviation
+     */
+    public synchronized void applyUninterruptibly(int[] canvas, int width, double sigma) {
+        try {
+            apply(canvas, width, sigma, false);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e); // never thrown by the uninterruptible passes
+        }
+    }
+
+    private void apply(int[] canvas, int width, double sigma, boolean interruptible) throws InterruptedException {
+        BitMapImage.checkDivision(canvas.length, width);
+        int height = canvas.length / width;
+        if (scratch.length < canvas.length) {
+            scratch = new int[canvas.length];
+        }
+        int[] tmp = scratch;
+
+        if (!premultiplied) {
+            run(canvas.length, interruptible, (s, e) -> {
+                for (int i = s; i < e; i++) {
+                    canvas[i] = HexColor.premultiply(canvas[i]);
+                }
+            });
+        }
+
+        for (int box : boxesForGauss(sigma)) {
+            int r = (box - 1) / 2;
+            if (r <= 0) {
+                continue;
+            }
+            run(height, interruptible, (s, e) -> boxBlurH(canvas, tmp, width, s, e, r));
+            run((width - 1) / COLUMN_STRIP + 1, interruptible, (s, e) -> boxBlurT(tmp, canvas, width, height, s * COLUMN_STRIP, Math.min(e * COLUMN_STRIP, width), r));
+        }
+
+        if (!premultiplied) {
+            run(canvas.length, interruptible, (s, e) -> {
+                for (int i = s; i < e; i++) {
+                    canvas[i] = HexColor.unpremultiply(canvas[i]);
+                }
+            });
+        }
+    }
+
+    private static void run(int length, boolean interruptible, ParallelRange.RangeTask task) throws InterruptedException {
+        if (interruptible) {
+            ParallelRange.run(length, task);
+        } else {
+            ParallelRange.runUninterruptibly(length, task);
+        }
+    }
+
+    /**
+     * Releases the scratch buffer.
+     */
+    public synchronized void trim() {
+        scratch = new int[0];
+    }
+
+    private static void boxBlurH(int[] source, int[] result, int w, int startRow, int endRow, int r) {
+        int mul = reciprocal(r);
+        int last = w - 1;
+        for (int y = startRow; y < endRow; y++) {
+            int base = y * w;
+            int sa = 0;
+            int sr = 0;
+            int sg = 0;
+            int sb = 0;
+            for (int k = -r; k <= r; k++) {
+                int p = source[base + Math.min(last, Math.max(0, k))];
+                sa += p >>> 24;
+                sr += p >> 16 & 0xff;
+                sg += p >> 8 & 0xff;
+                sb += p & 0xff;
+            }
+            for (int x = 0; x < w; x++) {
+                result[base + x] = pack(sa, sr, sg, sb, mul);
+                int out = source[base + Math.max(0, x - r)];
+                int in = source[base + Math.min(last, x + r + 1)];
+                sa += (in >>> 24) - (out >>> 24);
+                sr += (in >> 16 & 0xff) - (out >> 16 & 0xff);
+                sg += (in >> 8 & 0xff) - (out >> 8 & 0xff);
+                sb += (in & 0xff) - (out & 0xff);
+            }
+        }
+    }
+
+    private static void boxBlurT(int[] source, int[] result, int w, int h, int startColumn, int endColumn, int r) {
+        int mul = reciprocal(r);
+        int last = h - 1;
+        int[] sums = new int[COLUMN_STRIP * 4];
+
+        for (int x0 = startColumn; x0 < endColumn; x0 += COLUMN_STRIP) {
+            int x1 = Math.min(x0 + COLUMN_STRIP, endColumn);
+            Arrays.fill(sums, 0);
+
+            for (int k = -r; k <= r; k++) {
+                int row = Math.min(last, Math.max(0, k)) * w;
+                for (int x = x0; x < x1; x++) {
+                    int p = source[row + x];
+                    int s = (x - x0) * 4;
+                    sums[s] += p >>> 24;
+                    sums[s + 1] += p >> 16 & 0xff;
+                    sums[s + 2] += p >> 8 & 0xff;
+                    sums[s + 3] += p & 0xff;
+                }
+            }
+            for (int y = 0; y < h; y++) {
+                int row = y * w;
+                int outRow = Math.max(0, y - r) * w;
+                int inRow = Math.min(last, y + r + 1) * w;
+                for (int x = x0; x < x1; x++) {
+                    int s = (x - x0) * 4;
+                    result[row + x] = pack(sums[s], sums[s + 1], sums[s + 2], sums[s + 3], mul);
+                    int out = source[outRow + x];
+                    int in = source[inRow + x];
+                    sums[s] += (in >>> 24) - (out >>> 24);
+                    sums[s + 1] += (in >> 16 & 0xff) - (out >> 16 & 0xff);
+                    sums[s + 2] += (in >> 8 & 0xff) - (out >> 8 & 0xff);
+                    sums[s + 3] += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+    }
+
+    private static int reciprocal(int r) {
+        return (int) Math.round((double) (1 << SHIFT) / (r + r + 1));
+    }
+
+    private static int pack(int sa, int sr, int sg, int sb, int mul) {
+        int half = 1 << (SHIFT - 1);
+        int a = (int) (((long) sa * mul + half) >> SHIFT);
+        int r = (int) (((long) sr * mul + half) >> SHIFT);
+        int g = (int) (((long) sg * mul + half) >> SHIFT);
+        int b = (int) (((long) sb * mul + half) >> SHIFT);
+        return Math.min(a, 255) << 24 | Math.min(r, 255) << 16 | Math.min(g, 255) << 8 | Math.min(b, 255);
+    }
+
+    /**
+     * Gets the widths of the three boxes approximating the gaussian of the standard deviation.
+     */
+    static int[] boxesForGauss(double sigma) {
+        double wIdeal = Math.sqrt((4 * sigma * sigma) + 1);  // Ideal averaging filter width
+        int wl = (int) Math.floor(wIdeal);
+        if (wl % 2 == 0) {
+            wl--;
+        }
+        int wu = wl + 2;
+
+        double mIdeal = (12 * sigma * sigma - 3 * wl * wl - 12 * wl - 9) / (-4 * wl - 4);
+        int m = (int) Math.round(mIdeal);
+
+        int[] sizes = new int[3];
+        for (int i = 0; i < 3; i++) sizes[i] = (i < m ? wl : wu);
+        return sizes;
+    }
+}
@@ -0,0 +1,717 @@
+package kr.merutilm.base.io;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+import kr.merutilm.base.parallel.ParallelRange;
+
+/**
+ * PNG and BMP reader decoding straight into the packed ARGB canvas of {@link BitMap}.
+ * <p>
+ * The PNG rows are inflated and unfiltered on one thread, and converted to ARGB by the other threads as soon as every batch of rows is ready.
+ * All color types and bit depths are supported, the 16-bit samples are reduced to their high byte.
+ * The samples of gray images are used as they are, like {@link RasterDecoder}.
+ * Interlaced PNG, compressed BMP and any other format fall back to {@link ImageIO} and {@link RasterDecoder}.
+ * <p>
+ * The chunk CRCs are not checked. the pixel data is still verified by the Adler-32 checksum of the zlib stream.
+ */
+public final class ImageDecoder {
+    private ImageDecoder() {
+
+    }
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    /**
+     * The images with fewer pixels are decoded on the current thread only.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    /**
+     * The approximate size of the unfiltered rows handed to the converting threads at once.
+     */
+    private static final int BATCH_BYTES = 1 << 16;
+
+    public static BitMap read(File file) throws IOException {
+        return decode(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Decodes the image file content.
+     *
+     * @throws InterruptedIOException When the current thread is interrupted while decoding
+     */
+    public static BitMap decode(byte[] data) throws IOException {
+        return decode(data, Runtime.getRuntime().availableProcessors() > 1);
+    }
+
+    public static List<BitMap> readAll(List<File> files) throws IOException {
+        return readAll(files, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the files concurrently, each decoded on one thread of the pool.
+     *
+     * @param threads the number of the decoding threads
+     * @return the bitmaps in the order of the files
+     * @throws IOException When any file cannot be read
+     */
+    public static List<BitMap> readAll(List<File> files, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("invalid threads : " + threads);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "image-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<BitMap>> futures = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(pool.submit(() -> decode(Files.readAllBytes(file.toPath()), false)));
+            }
+            List<BitMap> result = new ArrayList<>(files.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    result.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new IOException("failed to read " + files.get(i), e.getCause());
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("image decoding interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static BitMap decode(byte[] data, boolean parallel) throws IOException {
+        try {
+            BitMap result = null;
+            if (startsWith(data, PNG_SIGNATURE)) {
+                result = decodePNG(data, parallel);
+            } else if (data.length >= 2 && data[0] == 'B' && data[1] == 'M') {
+                result = decodeBMP(data, parallel);
+            }
+            return result == null ? fallback(data) : result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("image decoding interrupted");
+        } catch (IndexOutOfBoundsException e) {
+            throw new EOFException("truncated image");
+        } catch (ArithmeticException e) {
+            throw new IOException("image too large", e);
+        }
+    }
+
+    private static BitMap fallback(byte[] data) throws IOException, InterruptedException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        if (image == null) {
+            throw new IOException("unsupported image format");
+        }
+        return RasterDecoder.decode(image);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        return data.length >= prefix.length && Arrays.equals(data, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    private static int int32BE(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff;
+    }
+
+    private static int int32LE(byte[] data, int offset) {
+        return (data[offset + 3] & 0xff) << 24 | (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | data[offset] & 0xff;
+    }
+
+    private static int int16LE(byte[] data, int offset) {
+        return (data[offset + 1] & 0xff) << 8 | data[offset] & 0xff;
+    }
+
+    //PNG
+
+    /**
+     * @return the bitmap, or null if the image is interlaced
+     */
+    private static BitMap decodePNG(byte[] data, boolean parallel) throws IOException, InterruptedException {
+        PNGHeader header = null;
+        int[] palette = null;
+        byte[] transparency = null;
+        List<int[]> idat = new ArrayList<>();
+
+        int offset = PNG_SIGNATURE.length;
+        while (true) {
+            int length = int32BE(data, offset);
+            String type = new String(data, offset + 4, 4, StandardCharsets.US_ASCII);
+            int start = offset + 8;
+            if (length < 0 || start + length + 4 > data.length) {
+                throw new EOFException("truncated PNG chunk : " + type);
+            }
+            switch (type) {
+                case "IHDR" -> header = PNGHeader.read(data, start);
+                case "PLTE" -> palette = readPalette(data, start, length);
+                case "tRNS" -> transparency = Arrays.copyOfRange(data, start, start + length);
+                case "IDAT" -> idat.add(new int[]{start, length});
+                default -> {
+                    //ancillary chunks are ignored
+                }
+            }
+            offset = start + length + 4;
+            if (type.equals("IEND")) {
+                break;
+            }
+        }
+
+        if (header == null || idat.isEmpty()) {
+            throw new IOException("missing IHDR or IDAT chunk");
+        }
+        if (header.interlaced) {
+            return null;
+        }
+        if (header.colorType == 3 && palette == null) {
+            throw new IOException("missing PLTE chunk");
+        }
+
+        RowConverter converter = rowConverter(header, palette, transparency);
+        int width = header.width;
+        int height = header.height;
+        int stride = header.rowBytes() + 1;
+        int[] canvas = new int[Math.multiplyExact(width, height)];
+        Inflater inflater = new Inflater();
+        IDATInput input = new IDATInput(data, idat, inflater);
+
+        try {
+            if (!parallel || (long) width * height < PARALLEL_THRESHOLD) {
+                byte[] rows = new byte[stride * 2];
+                for (int y = 0; y < height; y++) {
+                    int row = (y & 1) * stride;
+                    input.readFully(rows, row, stride);
+                    unfilter(rows, row, y == 0 ? -1 : stride - row, stride, header.filterBytes());
+                    converter.convert(rows, row + 1, canvas, y * width);
+                }
+            } else {
+                decodePipelined(input, header, converter, canvas);
+            }
+        } finally {
+            inflater.end();
+        }
+        return new BitMap(width, height, canvas);
+    }
+
+    /**
+     * Inflates and unfilters the rows on a new thread, while the other threads convert every finished batch.
+     */
+    private static void decodePipelined(IDATInput input, PNGHeader header, RowConverter converter, int[] canvas) throws IOException, InterruptedException {
+        int width = header.width;
+        int height = header.height;
+        int stride = header.rowBytes() + 1;
+        int bpp = header.filterBytes();
+        byte[] rows = new byte[Math.multiplyExact(stride, height)];
+        int batchRows = Math.max(1, BATCH_BYTES / stride);
+        int batches = (height - 1) / batchRows + 1;
+        RowProgress progress = new RowProgress();
+
+        Thread inflating = new Thread(() -> {
+            try {
+                for (int y = 0; y < height; y++) {
+                    int row = y * stride;
+                    input.readFully(rows, row, stride);
+                    unfilter(rows, row, y == 0 ? -1 : row - stride, stride, bpp);
+                    if ((y + 1) % batchRows == 0 || y == height - 1) {
+                        if (!progress.advance(y + 1)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                progress.fail(e);
+            } catch (RuntimeException | Error e) {
+                // the converting threads wait for the rows until told otherwise
+                progress.fail(new IOException("failed to inflate PNG", e));
+            }
+        }, "png-inflater");
+        inflating.start();
+
+        int parts = Math.min(batches, Runtime.getRuntime().availableProcessors());
+        try {
+            ParallelRange.run(parts, parts, (s, e) -> {
+                for (int p = s; p < e; p++) {
+                    // the batches are dealt in turn, so every thread converts the rows right behind the inflater
+                    for (int b = p; b < batches; b += parts) {
+                        int y0 = b * batchRows;
+                        int y1 = Math.min(y0 + batchRows, height);
+                        if (!progress.await(y1)) {
+                            return;
+                        }
+                        for (int y = y0; y < y1; y++) {
+                            converter.convert(rows, y * stride + 1, canvas, y * width);
+                        }
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            progress.fail(new InterruptedIOException("image decoding interrupted"));
+            throw e;
+        } finally {
+            inflating.join();
+        }
+        progress.check();
+    }
+
+    /**
+     * The number of the rows ready to convert, shared between the inflating thread and the converting threads.
+     */
+    private static final class RowProgress {
+        private int rows = 0;
+        private IOException failure;
+
+        synchronized boolean advance(int rows) {
+            this.rows = rows;
+            notifyAll();
+            return failure == null;
+        }
+
+        synchronized void fail(IOException failure) {
+            if (this.failure == null) {
+                this.failure = failure;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Waits until the rows are ready.
+         *
+         * @return false if the decoding failed
+         */
+        synchronized boolean await(int rows) {
+            try {
+                while (this.rows < rows && failure == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return failure == null;
+        }
+
+        synchronized void check() throws IOException {
+            if (failure != null) {
+                throw new IOException("failed to decode PNG", failure);
+            }
+        }
+    }
+
+    /**
+     * Feeds the IDAT chunks to the inflater in turn.
+     */
+    private static final class IDATInput {
+        private final byte[] data;
+        private final List<int[]> chunks;
+        private final Inflater inflater;
+        private int next = 0;
+
+        IDATInput(byte[] data, List<int[]> chunks, Inflater inflater) {
+            this.data = data;
+            this.chunks = chunks;
+            this.inflater = inflater;
+        }
+
+        void readFully(byte[] target, int offset, int length) throws IOException {
+            try {
+                while (length > 0) {
+                    int n = inflater.inflate(target, offset, length);
+                    offset += n;
+                    length -= n;
+                    if (n == 0) {
+                        if (inflater.finished() || inflater.needsDictionary()) {
+                            throw new EOFException("truncated PNG data");
+                        }
+                        if (inflater.needsInput()) {
+                            if (next == chunks.size()) {
+                                throw new EOFException("truncated PNG data");
+                            }
+                            int[] chunk = chunks.get(next++);
+                            inflater.setInput(data, chunk[0], chunk[1]);
+                        }
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt PNG data", e);
+            }
+        }
+    }
+
+    private record PNGHeader(int width, int height, int bitDepth, int colorType, boolean interlaced) {
+
+        static PNGHeader read(byte[] data, int offset) throws IOException {
+            int width = int32BE(data, offset);
+            int height = int32BE(data, offset + 4);
+            int bitDepth = data[offset + 8];
+            int colorType = data[offset + 9];
+            int interlace = data[offset + 12];
+            if (width <= 0 || height <= 0) {
+                throw new IOException("invalid PNG size : " + width + "x" + height);
+            }
+            boolean valid = switch (colorType) {
+                case 0 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8 || bitDepth == 16;
+                case 3 -> bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8;
+                case 2, 4, 6 -> bitDepth == 8 || bitDepth == 16;
+                default -> false;
+            };
+            if (!valid) {
+                throw new IOException("invalid PNG color type and bit depth : " + colorType + ", " + bitDepth);
+            }
+            return new PNGHeader(width, height, bitDepth, colorType, interlace != 0);
+        }
+
+        int channels() {
+            return switch (colorType) {
+                case 2 -> 3;
+                case 4 -> 2;
+                case 6 -> 4;
+                default -> 1;
+            };
+        }
+
+        int rowBytes() {
+            return Math.toIntExact(((long) width * channels() * bitDepth + 7) / 8);
+        }
+
+        /**
+         * Gets the distance to the corresponding byte of the previous pixel, used by the filters.
+         */
+        int filterBytes() {
+            return Math.max(1, channels() * bitDepth / 8);
+        }
+    }
+
+    private static int[] readPalette(byte[] data, int offset, int length) {
+        int[] palette = new int[256];
+        Arrays.fill(palette, 0xff000000);
+        for (int i = 0; i < Math.min(256, length / 3); i++) {
+            int p = offset + i * 3;
+            palette[i] = 0xff000000 | (data[p] & 0xff) << 16 | (data[p + 1] & 0xff) << 8 | data[p + 2] & 0xff;
+        }
+        return palette;
+    }
+
+    /**
+     * Reverses the filter of the row in place.
+     *
+     * @param row      the offset of the filter type byte of the row
+     * @param previous the offset of the filter type byte of the previous row, or -1 for the first row
+     * @param stride   the length of the row including the filter type byte
+     */
+    private static void unfilter(byte[] rows, int row, int previous, int stride, int bpp) throws IOException {
+        int filter = rows[row];
+        int s = row + 1;
+        int p = previous + 1;
+        int length = stride - 1;
+        switch (filter) {
+            case 0 -> {
+                //none
+            }
+            case 1 -> {
+                for (int i = bpp; i < length; i++) {
+                    rows[s + i] += rows[s + i - bpp];
+                }
+            }
+            case 2 -> {
+                if (previous >= 0) {
+                    for (int i = 0; i < length; i++) {
+                        rows[s + i] += rows[p + i];
+                    }
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? rows[s + i - bpp] & 0xff : 0;
+                    int up = previous >= 0 ? rows[p + i] & 0xff : 0;
+                    rows[s + i] += (byte) ((left + up) >>> 1);
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? rows[s + i - bpp] & 0xff : 0;
+                    int up = previous >= 0 ? rows[p + i] & 0xff : 0;
+                    int upLeft = i >= bpp && previous >= 0 ? rows[p + i - bpp] & 0xff : 0;
+                    rows[s + i] += (byte) paeth(left, up, upLeft);
+                }
+            }
+            default -> throw new IOException("invalid PNG filter type : " + filter);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int pa = Math.abs(b - c);
+        int pb = Math.abs(a - c);
+        int pc = Math.abs(a + b - 2 * c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    @FunctionalInterface
+    private interface RowConverter {
+        /**
+         * Converts the unfiltered row to ARGB.
+         */
+        void convert(byte[] source, int sourceOffset, int[] target, int targetOffset);
+    }
+
+    private static RowConverter rowConverter(PNGHeader header, int[] palette, byte[] transparency) {
+        int width = header.width;
+        int depth = header.bitDepth;
+        int bytes = depth == 16 ? 2 : 1;
+
+        switch (header.colorType) {
+            case 0 -> {
+                int key = transparency != null && transparency.length >= 2 ? (transparency[0] & 0xff) << 8 | transparency[1] & 0xff : -1;
+                if (depth < 8) {
+                    int max = (1 << depth) - 1;
+                    return (source, offset, target, row) -> {
+                        for (int x = 0; x < width; x++) {
+                            int v = sample(source, offset, x, depth);
+                            int g = v * 255 / max;
+                            target[row + x] = (v == key ? 0 : 0xff000000) | g << 16 | g << 8 | g;
+                        }
+                    };
+                }
+                return (source, offset, target, row) -> {
+                    for (int x = 0, s = offset; x < width; x++, s += bytes) {
+                        int g = source[s] & 0xff;
+                        int v = depth == 16 ? g << 8 | source[s + 1] & 0xff : g;
+                        target[row + x] = (v == key ? 0 : 0xff000000) | g << 16 | g << 8 | g;
+                    }
+                };
+            }
+            case 2 -> {
+                if (transparency == null || transparency.length < 6) {
+                    return (source, offset, target, row) -> {
+                        for (int x = 0, s = offset; x < width; x++, s += 3 * bytes) {
+                            target[row + x] = 0xff000000 | (source[s] & 0xff) << 16 | (source[s + bytes] & 0xff) << 8 | source[s + 2 * bytes] & 0xff;
+                        }
+                    };
+                }
+                long key = (long) (transparency[0] & 0xff) << 40 | (long) (transparency[1] & 0xff) << 32 | (long) (transparency[2] & 0xff) << 24
+                           | (transparency[3] & 0xff) << 16 | (transparency[4] & 0xff) << 8 | transparency[5] & 0xff;
+                return (source, offset, target, row) -> {
+                    for (int x = 0, s = offset; x < width; x++, s += 3 * bytes) {
+                        long v = 0;
+                        for (int c = 0; c < 3; c++) {
+                            int hi = source[s + c * bytes] & 0xff;
+                            v = v << 16 | (depth == 16 ? hi << 8 | source[s + c * bytes + 1] & 0xff : hi);
+                        }
+                        int rgb = (source[s] & 0xff) << 16 | (source[s + bytes] & 0xff) << 8 | source[s + 2 * bytes] & 0xff;
+                        target[row + x] = (v == key ? 0 : 0xff000000) | rgb;
+                    }
+                };
+            }
+            case 3 -> {
+                int[] colors = palette.clone();
+                if (transparency != null) {
+                    for (int i = 0; i < Math.min(256, transparency.length); i++) {
+                        colors[i] = (transparency[i] & 0xff) << 24 | colors[i] & 0xffffff;
+                    }
+                }
+                if (depth < 8) {
+                    return (source, offset, target, row) -> {
+                        for (int x = 0; x < width; x++) {
+                            target[row + x] = colors[sample(source, offset, x, depth)];
+                        }
+                    };
+                }
+                return (source, offset, target, row) -> {
+                    for (int x = 0; x < width; x++) {
+                        target[row + x] = colors[source[offset + x] & 0xff];
+                    }
+                };
+            }
+            case 4 -> {
+                return (source, offset, target, row) -> {
+                    for (int x = 0, s = offset; x < width; x++, s += 2 * bytes) {
+                        int g = source[s] & 0xff;
+                        target[row + x] = (source[s + bytes] & 0xff) << 24 | g << 16 | g << 8 | g;
+                    }
+                };
+            }
+            default -> {
+                return (source, offset, target, row) -> {
+                    for (int x = 0, s = offset; x < width; x++, s += 4 * bytes) {
+                        target[row + x] = (source[s + 3 * bytes] & 0xff) << 24 | (source[s] & 0xff) << 16 | (source[s + bytes] & 0xff) << 8 | source[s + 2 * bytes] & 0xff;
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Gets the sample of the packed row of 1, 2 or 4 bits per sample.
+     */
+    private static int sample(byte[] source, int offset, int x, int depth) {
+        int bit = x * depth;
+        return (source[offset + (bit >> 3)] & 0xff) >> (8 - depth - (bit & 7)) & (1 << depth) - 1;
+    }
+
+    //BMP
+
+    /**
+     * @return the bitmap, or null if the image is compressed
+     */
+    private static BitMap decodeBMP(byte[] data, boolean parallel) throws IOException, InterruptedException {
+        int pixelOffset = int32LE(data, 10);
+        int headerSize = int32LE(data, 14);
+        int width;
+        int height;
+        int bpp;
+        int compression = 0;
+        int colorsUsed = 0;
+        int paletteEntryBytes = 4;
+        int[] masks = null;
+
+        if (headerSize == 12) {
+            width = int16LE(data, 18);
+            height = int16LE(data, 20);
+            bpp = int16LE(data, 24);
+            paletteEntryBytes = 3;
+        } else if (headerSize >= 40) {
+            width = int32LE(data, 18);
+            height = int32LE(data, 22);
+            bpp = int16LE(data, 28);
+            compression = int32LE(data, 30);
+            colorsUsed = int32LE(data, 46);
+            if (compression == 3 || compression == 6) {
+                int alpha = compression == 6 || headerSize >= 56 ? int32LE(data, 66) : 0;
+                masks = new int[]{int32LE(data, 54), int32LE(data, 58), int32LE(data, 62), alpha};
+                if (headerSize == 40) {
+                    headerSize += compression == 6 ? 16 : 12;
+                }
+            }
+        } else {
+            throw new IOException("invalid BMP header size : " + headerSize);
+        }
+
+        if (compression != 0 && compression != 3 && compression != 6) {
+            return null;
+        }
+        boolean topDown = height < 0;
+        height = Math.abs(height);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("invalid BMP size : " + width + "x" + height);
+        }
+        if (masks == null) {
+            masks = switch (bpp) {
+                case 16 -> new int[]{0x7c00, 0x3e0, 0x1f, 0};
+                case 24, 32 -> new int[]{0xff0000, 0xff00, 0xff, 0};
+                default -> null;
+            };
+        }
+
+        int stride = Math.toIntExact(((long) width * bpp + 31) / 32 * 4);
+        if (pixelOffset < 0 || (long) pixelOffset + (long) stride * height > data.length) {
+            throw new EOFException("truncated BMP data");
+        }
+
+        int[] palette = null;
+        if (bpp <= 8) {
+            int count = colorsUsed <= 0 || colorsUsed > 256 ? 1 << bpp : colorsUsed;
+            palette = new int[256];
+            Arrays.fill(palette, 0xff000000);
+            int start = 14 + headerSize;
+            for (int i = 0; i < count && start + i * paletteEntryBytes + 2 < pixelOffset; i++) {
+                int p = start + i * paletteEntryBytes;
+                palette[i] = 0xff000000 | (data[p + 2] & 0xff) << 16 | (data[p + 1] & 0xff) << 8 | data[p] & 0xff;
+            }
+        } else if (bpp != 16 && bpp != 24 && bpp != 32) {
+            throw new IOException("invalid BMP bit count : " + bpp);
+        }
+
+        RowConverter converter = bmpConverter(width, bpp, palette, masks);
+        int[] canvas = new int[Math.multiplyExact(width, height)];
+        int finalHeight = height;
+        ParallelRange.RangeTask task = (s, e) -> {
+            for (int y = s; y < e; y++) {
+                int sourceRow = topDown ? y : finalHeight - 1 - y;
+                converter.convert(data, pixelOffset + sourceRow * stride, canvas, y * width);
+            }
+        };
+        if (parallel && (long) width * height >= PARALLEL_THRESHOLD) {
+            ParallelRange.run(height, task);
+        } else {
+            task.run(0, height);
+        }
+        return new BitMap(width, height, canvas);
+    }
+
+    private static RowConverter bmpConverter(int width, int bpp, int[] palette, int[] masks) {
+        if (palette != null) {
+            if (bpp == 8) {
+                return (source, offset, target, row) -> {
+                    for (int x = 0; x < width; x++) {
+                        target[row + x] = palette[source[offset + x] & 0xff];
+                    }
+                };
+            }
+            return (source, offset, target, row) -> {
+                for (int x = 0; x < width; x++) {
+                    target[row + x] = palette[sample(source, offset, x, bpp)];
+                }
+            };
+        }
+        if (bpp == 24) {
+            return (source, offset, target, row) -> {
+                for (int x = 0, s = offset; x < width; x++, s += 3) {
+                    target[row + x] = 0xff000000 | (source[s + 2] & 0xff) << 16 | (source[s + 1] & 0xff) << 8 | source[s] & 0xff;
+                }
+            };
+        }
+        Channel r = new Channel(masks[0]);
+        Channel g = new Channel(masks[1]);
+        Channel b = new Channel(masks[2]);
+        Channel a = new Channel(masks[3]);
+        boolean opaque = masks[3] == 0;
+        return (source, offset, target, row) -> {
+            for (int x = 0; x < width; x++) {
+                int p = bpp == 16 ? int16LE(source, offset + x * 2) : int32LE(source, offset + x * 4);
+                int alpha = opaque ? 0xff : a.extract(p);
+                target[row + x] = alpha << 24 | r.extract(p) << 16 | g.extract(p) << 8 | b.extract(p);
+            }
+        };
+    }
+
+    /**
+     * A color channel of the BMP bit fields, scaled to 8 bits.
+     */
+    private record Channel(int mask, int shift, int max) {
+        Channel(int mask) {
+            this(mask, mask == 0 ? 0 : Integer.numberOfTrailingZeros(mask), mask == 0 ? 0 : mask >>> Integer.numberOfTrailingZeros(mask));
+        }
+
+        int extract(int pixel) {
+            if (max == 0) {
+                return 0;
+            }
+            int v = (pixel & mask) >>> shift;
+            return max == 255 ? v : (v * 255 + max / 2) / max;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package kr.merutilm.base.io;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.DoubleMatrix;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * Image quality metrics between two {@link BitMap}s of the same size, computed in parallel by rows.
+ * <p>
+ * The errors are measured on the four channels of the premultiplied pixels,
+ * so the hidden colors of transparent pixels do not count.
+ * SSIM is computed on the luma with square windows, whose sums are read from integral images in constant time.
+ */
+public final class ImageMetrics {
+
+    /**
+     * The radius of the SSIM window. the window is 7x7.
+     */
+    public static final int SSIM_RADIUS = 3;
+    private static final double SSIM_C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double SSIM_C2 = (0.03 * 255) * (0.03 * 255);
+    /**
+     * The number of the rows checked between the threshold tests of the early exit.
+     */
+    private static final int EARLY_EXIT_ROWS = 16;
+
+    private ImageMetrics() {
+
+    }
+
+    /**
+     * Gets the mean squared error per channel.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static double mse(BitMap a, BitMap b) throws InterruptedException {
+        checkSize(a, b);
+        int width = a.getWidth();
+        int[] ca = a.getCanvas();
+        int[] cb = b.getCanvas();
+        LongAdder sum = new LongAdder();
+        ParallelRange.run(a.getHeight(), (s, e) -> sum.add(squaredError(ca, cb, s * width, e * width)));
+        return sum.doubleValue() / (4.0 * ca.length);
+    }
+
+    /**
+     * Gets the peak signal-to-noise ratio in decibels. it is infinite when the bitmaps are equal.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static double psnr(BitMap a, BitMap b) throws InterruptedException {
+        return psnr(mse(a, b));
+    }
+
+    public static double psnr(double mse) {
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    /**
+     * Tests whether the mean squared error stays under the threshold.
+     * Every part stops as soon as the accumulated error crosses it, so very different bitmaps are rejected early.
+     *
+     * @param maxMSE the maximum mean squared error per channel
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static boolean isWithin(BitMap a, BitMap b, double maxMSE) throws InterruptedException {
+        checkSize(a, b);
+        int width = a.getWidth();
+        int height = a.getHeight();
+        int[] ca = a.getCanvas();
+        int[] cb = b.getCanvas();
+        double limit = maxMSE * 4.0 * ca.length;
+        LongAdder sum = new LongAdder();
+        AtomicBoolean exceeded = new AtomicBoolean();
+
+        ParallelRange.run(height, (s, e) -> {
+            for (int y = s; y < e && !exceeded.get(); y += EARLY_EXIT_ROWS) {
+                int end = Math.min(e, y + EARLY_EXIT_ROWS);
+                sum.add(squaredError(ca, cb, y * width, end * width));
+                if (sum.sum() > limit) {
+                    exceeded.set(true);
+                }
+            }
+        });
+        return !exceeded.get() && sum.sum() <= limit;
+    }
+
+    /**
+     * Tests whether the PSNR stays over the threshold, exiting early like {@link #isWithin(BitMap, BitMap, double)}.
+     *
+     * @param minPSNR the minimum PSNR in decibels
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static boolean isAbove(BitMap a, BitMap b, double minPSNR) throws InterruptedException {
+        return isWithin(a, b, 255 * 255 / Math.pow(10, minPSNR / 10));
+    }
+
+    /**
+     * Gets the per-pixel map of the mean squared error of the channels.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static DoubleMatrix diffMap(BitMap a, BitMap b) throws InterruptedException {
+        checkSize(a, b);
+        int width = a.getWidth();
+        int[] ca = a.getCanvas();
+        int[] cb = b.getCanvas();
+        double[] result = new double[ca.length];
+        ParallelRange.run(a.getHeight(), (s, e) -> {
+            for (int i = s * width; i < e * width; i++) {
+                result[i] = squaredError(ca, cb, i, i + 1) / 4.0;
+            }
+        });
+        return new DoubleMatrix(width, a.getHeight(), result);
+    }
+
+    /**
+     * Gets the mean structural similarity of the luma, from -1 to 1. it is 1 when the bitmaps are equal.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static double ssim(BitMap a, BitMap b) throws InterruptedException {
+        DoubleMatrix map = ssimMap(a, b);
+        double[] canvas = map.getCanvas();
+        int width = map.getWidth();
+        DoubleAdder sum = new DoubleAdder();
+        ParallelRange.run(map.getHeight(), (s, e) -> {
+            double partial = 0;
+            for (int i = s * width; i < e * width; i++) {
+                partial += canvas[i];
+            }
+            sum.add(partial);
+        });
+        return sum.sum() / canvas.length;
+    }
+
+    /**
+     * Gets the per-pixel SSIM map of the luma, with the windows clipped at the borders.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static DoubleMatrix ssimMap(BitMap a, BitMap b) throws InterruptedException {
+        checkSize(a, b);
+        int width = a.getWidth();
+        int height = a.getHeight();
+        int[] ca = a.getCanvas();
+        int[] cb = b.getCanvas();
+        int stride = width + 1;
+        int length = stride * (height + 1);
+
+        // integral images of x, y, x^2, y^2, xy
+        double[] sx = new double[length];
+        double[] sy = new double[length];
+        double[] sxx = new double[length];
+        double[] syy = new double[length];
+        double[] sxy = new double[length];
+
+        ParallelRange.run(height, (s, e) -> {
+            for (int y = s; y < e; y++) {
+                double px = 0;
+                double py = 0;
+                double pxx = 0;
+                double pyy = 0;
+                double pxy = 0;
+                int src = y * width;
+                int dst = (y + 1) * stride + 1;
+                for (int x = 0; x < width; x++) {
+                    double lx = luma(ca[src + x]);
+                    double ly = luma(cb[src + x]);
+                    px += lx;
+                    py += ly;
+                    pxx += lx * lx;
+                    pyy += ly * ly;
+                    pxy += lx * ly;
+                    sx[dst + x] = px;
+                    sy[dst + x] = py;
+                    sxx[dst + x] = pxx;
+                    syy[dst + x] = pyy;
+                    sxy[dst + x] = pxy;
+                }
+            }
+        });
+        ParallelRange.run(stride, (s, e) -> {
+            for (int y = 2; y <= height; y++) {
+                int row = y * stride;
+                int above = row - stride;
+                for (int x = s; x < e; x++) {
+                    sx[row + x] += sx[above + x];
+                    sy[row + x] += sy[above + x];
+                    sxx[row + x] += sxx[above + x];
+                    syy[row + x] += syy[above + x];
+                    sxy[row + x] += sxy[above + x];
+                }
+            }
+        });
+
+        double[] result = new double[width * height];
+        ParallelRange.run(height, (s, e) -> {
+            for (int y = s; y < e; y++) {
+                int y0 = Math.max(0, y - SSIM_RADIUS) * stride;
+                int y1 = (Math.min(height - 1, y + SSIM_RADIUS) + 1) * stride;
+                int rows = (y1 - y0) / stride;
+                for (int x = 0; x < width; x++) {
+                    int x0 = Math.max(0, x - SSIM_RADIUS);
+                    int x1 = Math.min(width - 1, x + SSIM_RADIUS) + 1;
+                    double n = (double) rows * (x1 - x0);
+                    double mx = box(sx, y0, y1, x0, x1) / n;
+                    double my = box(sy, y0, y1, x0, x1) / n;
+                    double vx = Math.max(0, box(sxx, y0, y1, x0, x1) / n - mx * mx);
+                    double vy = Math.max(0, box(syy, y0, y1, x0, x1) / n - my * my);
+                    double cxy = box(sxy, y0, y1, x0, x1) / n - mx * my;
+                    result[y * width + x] = ((2 * mx * my + SSIM_C1) * (2 * cxy + SSIM_C2))
+                                            / ((mx * mx + my * my + SSIM_C1) * (vx + vy + SSIM_C2));
+                }
+            }
+        });
+        return new DoubleMatrix(width, height, result);
+    }
+
+    /**
+     * Gets the accuracy percentage of {@link BitMapImage#accuracy(java.awt.image.BufferedImage, java.awt.image.BufferedImage)},
+     * the alpha weighted absolute difference of the color channels subtracted from 100.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static double accuracy(BitMap a, BitMap b) throws InterruptedException {
+        checkSize(a, b);
+        int width = a.getWidth();
+        int[] ca = a.getCanvas();
+        int[] cb = b.getCanvas();
+        DoubleAdder sum = new DoubleAdder();
+        ParallelRange.run(a.getHeight(), (s, e) -> {
+            double err = 0;
+            for (int i = s * width; i < e * width; i++) {
+                int p1 = ca[i];
+                int p2 = cb[i];
+                double m1 = (p1 >>> 24) / 255.0;
+                double m2 = (p2 >>> 24) / 255.0;
+                double dr = Math.abs((p2 >> 16 & 0xff) * m2 - (p1 >> 16 & 0xff) * m1);
+                double dg = Math.abs((p2 >> 8 & 0xff) * m2 - (p1 >> 8 & 0xff) * m1);
+                double db = Math.abs((p2 & 0xff) * m2 - (p1 & 0xff) * m1);
+                err += dr + dg + db;
+            }
+            sum.add(err);
+        });
+        return 100 - sum.sum() * 0.130719 / ca.length;
+    }
+
+    private static long squaredError(int[] a, int[] b, int start, int end) {
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            int p = a[i];
+            int q = b[i];
+            if (p == q) {
+                continue;
+            }
+            p = HexColor.premultiply(p);
+            q = HexColor.premultiply(q);
+            for (int shift = 0; shift < 32; shift += 8) {
+                int d = (p >>> shift & 0xff) - (q >>> shift & 0xff);
+                sum += d * d;
+            }
+        }
+        return sum;
+    }
+
+    private static double box(double[] integral, int y0, int y1, int x0, int x1) {
+        return integral[y1 + x1] - integral[y0 + x1] - integral[y1 + x0] + integral[y0 + x0];
+    }
+
+    /**
+     * Gets the Rec. 601 luma of the premultiplied color.
+     */
+    private static double luma(int c) {
+        c = HexColor.premultiply(c);
+        return 0.299 * (c >> 16 & 0xff) + 0.587 * (c >> 8 & 0xff) + 0.114 * (c & 0xff);
+    }
+
+    private static void checkSize(BitMap a, BitMap b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            throw new IllegalArgumentException("Size mismatch : " + a.getWidth() + "x" + a.getHeight() + " and " + b.getWidth() + "x" + b.getHeight());
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package kr.merutilm.base.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+import kr.merutilm.base.struct.HexColor.ColorBlendMode;
+
+/**
+ * Stack of bitmap layers composited on packed ARGB pixels, from the bottom layer to the top layer.
+ * <p>
+ * Every layer is blended with the separable blend modes of the W3C compositing specification and the source-over operator,
+ * so the blend mode applies where the backdrop is opaque and the layer shows as it is where the backdrop is transparent.
+ * Unlike {@link HexColor#blend(ColorBlendMode, HexColor, double)}, the alpha of the layer is always respected.
+ * <p>
+ * The canvas is composited in one parallel pass by tiles of 64x64, skipping the layers which are fully transparent in the tile.
+ */
+public final class LayerStack {
+
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    /**
+     * @param bitMap    the pixels of the layer
+     * @param opacity   the opacity of the layer, from 0 to 1
+     * @param blendMode the blend mode
+     * @param offsetX   the location of the left of the layer on the canvas
+     * @param offsetY   the location of the top of the layer on the canvas
+     */
+    public record Layer(BitMap bitMap, double opacity, ColorBlendMode blendMode, int offsetX, int offsetY) {
+        public Layer {
+            if (opacity < 0 || opacity > 1) {
+                throw new IllegalArgumentException("invalid opacity : " + opacity);
+            }
+        }
+
+        public Layer(BitMap bitMap) {
+            this(bitMap, 1, ColorBlendMode.NORMAL, 0, 0);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final List<Layer> layers = new ArrayList<>();
+    private int background = 0;
+    private boolean premultiplied = false;
+    private final AtomicLong skippedTiles = new AtomicLong();
+
+    public LayerStack(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Length : " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public LayerStack add(Layer layer) {
+        layers.add(layer);
+        return this;
+    }
+
+    public LayerStack add(BitMap bitMap, double opacity, ColorBlendMode blendMode, int offsetX, int offsetY) {
+        return add(new Layer(bitMap, opacity, blendMode, offsetX, offsetY));
+    }
+
+    public List<Layer> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    public void clear() {
+        layers.clear();
+    }
+
+    /**
+     * Sets the ARGB color under the bottom layer. the default is transparent.
+     */
+    public void setBackground(int background) {
+        this.background = background;
+    }
+
+    public int getBackground() {
+        return background;
+    }
+
+    /**
+     * Sets whether the layers and the result are premultiplied by alpha.
+     * Premultiplied layers skip the conversion of every pixel in the normal blend mode.
+     */
+    public void setPremultiplied(boolean premultiplied) {
+        this.premultiplied = premultiplied;
+    }
+
+    public boolean isPremultiplied() {
+        return premultiplied;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of the layer tiles skipped as fully transparent by the last composition.
+     */
+    public long getSkippedTiles() {
+        return skippedTiles.get();
+    }
+
+    public BitMap composite() throws InterruptedException {
+        BitMap target = new BitMap(width, height);
+        composite(target);
+        return target;
+    }
+
+    /**
+     * Composites the layers into the target, overwriting it.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public void composite(BitMap target) throws InterruptedException {
+        if (target.getWidth() != width || target.getHeight() != height) {
+            throw new IllegalArgumentException("Size mismatch : " + width + "x" + height + ", but the target is " + target.getWidth() + "x" + target.getHeight());
+        }
+        List<Layer> layers = List.copyOf(this.layers);
+        boolean[][] contents = new boolean[layers.size()][];
+        for (int l = 0; l < layers.size(); l++) {
+            contents[l] = contents(layers.get(l).bitMap());
+        }
+
+        int[] canvas = target.getCanvas();
+        int tilesX = (width - 1) / TILE_SIZE + 1;
+        int tilesY = (height - 1) / TILE_SIZE + 1;
+        int initial = premultiplied ? background : HexColor.premultiply(background);
+        skippedTiles.set(0);
+
+        ParallelRange.run(tilesX * tilesY, (s, e) -> {
+            for (int t = s; t < e; t++) {
+                int x0 = t % tilesX << TILE_SHIFT;
+                int y0 = t / tilesX << TILE_SHIFT;
+                int x1 = Math.min(x0 + TILE_SIZE, width);
+                int y1 = Math.min(y0 + TILE_SIZE, height);
+
+                for (int y = y0; y < y1; y++) {
+                    Arrays.fill(canvas, y * width + x0, y * width + x1, initial);
+                }
+                for (int l = 0; l < layers.size(); l++) {
+                    compositeLayer(layers.get(l), contents[l], canvas, x0, y0, x1, y1);
+                }
+                if (!premultiplied) {
+                    for (int y = y0; y < y1; y++) {
+                        for (int i = y * width + x0; i < y * width + x1; i++) {
+                            canvas[i] = HexColor.unpremultiply(canvas[i]);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the tiles of the layer having any visible pixel.
+     */
+    private static boolean[] contents(BitMap bitMap) throws InterruptedException {
+        int w = bitMap.getWidth();
+        int h = bitMap.getHeight();
+        int[] canvas = bitMap.getCanvas();
+        int tilesX = (w - 1) / TILE_SIZE + 1;
+        int tilesY = (h - 1) / TILE_SIZE + 1;
+        boolean[] contents = new boolean[tilesX * tilesY];
+        ParallelRange.run(tilesY, (s, e) -> {
+            for (int ty = s; ty < e; ty++) {
+                for (int y = ty << TILE_SHIFT; y < Math.min((ty + 1) << TILE_SHIFT, h); y++) {
+                    for (int x = 0; x < w; x++) {
+                        if (canvas[y * w + x] >>> 24 != 0) {
+                            contents[ty * tilesX + (x >> TILE_SHIFT)] = true;
+                            x |= TILE_SIZE - 1; // the rest of the tile in the row is not needed
+                        }
+                    }
+                }
+            }
+        });
+        return contents;
+    }
+
+    private void compositeLayer(Layer layer, boolean[] contents, int[] canvas, int x0, int y0, int x1, int y1) {
+        BitMap bitMap = layer.bitMap();
+        int w = bitMap.getWidth();
+        int ox = layer.offsetX();
+        int oy = layer.offsetY();
+        int lx0 = Math.max(x0, ox) - ox;
+        int ly0 = Math.max(y0, oy) - oy;
+        int lx1 = Math.min(x1, ox + w) - ox;
+        int ly1 = Math.min(y1, oy + bitMap.getHeight()) - oy;
+        int opacity = (int) Math.round(layer.opacity() * HexColor.MAX);
+        if (lx0 >= lx1 || ly0 >= ly1 || opacity == 0) {
+            return;
+        }
+        if (!hasContent(contents, (w - 1) / TILE_SIZE + 1, lx0, ly0, lx1, ly1)) {
+            skippedTiles.incrementAndGet();
+            return;
+        }
+
+        int[] source = bitMap.getCanvas();
+        ColorBlendMode mode = layer.blendMode();
+        for (int ly = ly0; ly < ly1; ly++) {
+            int target = (ly + oy) * width + ox;
+            for (int lx = lx0; lx < lx1; lx++) {
+                int c = source[ly * w + lx];
+                if (c >>> 24 == 0) {
+                    continue;
+                }
+                if (!premultiplied) {
+                    canvas[target + lx] = blend(canvas[target + lx], c, opacity, mode);
+                } else if (mode == ColorBlendMode.NORMAL) {
+                    canvas[target + lx] = over(canvas[target + lx], c, opacity);
+                } else {
+                    canvas[target + lx] = blend(canvas[target + lx], HexColor.unpremultiply(c), opacity, mode);
+                }
+            }
+        }
+    }
+
+    private static boolean hasContent(boolean[] contents, int tilesX, int lx0, int ly0, int lx1, int ly1) {
+        for (int ty = ly0 >> TILE_SHIFT; ty <= ly1 - 1 >> TILE_SHIFT; ty++) {
+            for (int tx = lx0 >> TILE_SHIFT; tx <= lx1 - 1 >> TILE_SHIFT; tx++) {
+                if (contents[ty * tilesX + tx]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Composites the premultiplied source over the backdrop in the normal blend mode.
+     */
+    static int over(int backdrop, int source, int opacity) {
+        int as = ((source >>> 24) * opacity + 127) / 255;
+        int rest = 255 - as;
+        int result = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            int cs = ((source >> shift & 0xff) * opacity + 127) / 255;
+            int cb = backdrop >> shift & 0xff;
+            result |= Math.min(255, cs + (cb * rest + 127) / 255) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Composites the source over the backdrop.
+     *
+     * @param backdrop the premultiplied backdrop
+     * @param source   the source, not premultiplied
+     * @param opacity  the opacity of the source from 0 to 255
+     * @return the premultiplied result
+     */
+    static int blend(int backdrop, int source, int opacity, ColorBlendMode mode) {
+        int as = ((source >>> 24) * opacity + 127) / 255;
+        if (as == 0) {
+            return backdrop;
+        }
+        int ab = backdrop >>> 24;
+        int ao = as + ab - (as * ab + 127) / 255;
+        int rest = 255 * (255 - as);
+        int shared = as * ab;
+        int own = as * (255 - ab);
+
+        int result = ao << 24;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int cs = source >> shift & 0xff;
+            int cb = backdrop >> shift & 0xff;
+            // B(Cb, Cs) uses the backdrop without alpha, and only matters where the backdrop is visible
+            int mixed = mode == ColorBlendMode.NORMAL || ab == 0 ? cs : mode.blend(Math.min(255, (cb * 255 + ab / 2) / ab), cs);
+            int c = (cs * own + cb * rest + mixed * shared + 32512) / 65025;
+            result |= Math.min(ao, c) << shift;
+        }
+        return result;
+    }
+}
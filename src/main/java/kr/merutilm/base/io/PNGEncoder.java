@@ -0,0 +1,359 @@
+package kr.merutilm.base.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import kr.merutilm.base.parallel.ParallelRange;
+
+/**
+ * PNG writer compressing independent row chunks in parallel, pigz-style.
+ * <p>
+ * Every chunk is filtered and deflated on its own thread, primed with the last 32KB of the previous chunk as the preset dictionary,
+ * and ended with a sync flush, so the raw deflate streams join into one valid zlib stream.
+ * The Adler-32 checksums of the chunks are combined without reading the data again.
+ */
+public final class PNGEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    /**
+     * The approximate size of the filtered data of one chunk.
+     */
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int DICTIONARY_BYTES = 1 << 15;
+    private static final int ADLER_BASE = 65521;
+
+    public enum Filter {
+        NONE(0),
+        SUB(1),
+        UP(2),
+        AVERAGE(3),
+        PAETH(4),
+        /**
+         * Chooses the filter of every row by the minimum sum of absolute differences.
+         */
+        ADAPTIVE(-1);
+
+        private final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    private final Filter filter;
+    private final int level;
+
+    /**
+     * @param filter the row filter
+     * @param level  the compression level, from {@link Deflater#NO_COMPRESSION} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public PNGEncoder(Filter filter, int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level : " + level);
+        }
+        this.filter = filter;
+        this.level = level;
+    }
+
+    public PNGEncoder() {
+        this(Filter.ADAPTIVE, 6);
+    }
+
+    /**
+     * Creates the encoder storing the pixels without filtering and compression, the fastest one.
+     */
+    public static PNGEncoder store() {
+        return new PNGEncoder(Filter.NONE, Deflater.NO_COMPRESSION);
+    }
+
+    /**
+     * Creates the encoder compressing with the fastest deflate level.
+     */
+    public static PNGEncoder fast() {
+        return new PNGEncoder(Filter.SUB, Deflater.BEST_SPEED);
+    }
+
+    public void write(BitMap bitMap, File file) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            write(bitMap, stream);
+        }
+    }
+
+    public byte[] encode(BitMap bitMap) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(bitMap, stream);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Writes the bitmap as PNG. the stream is not closed.
+     *
+     * @throws InterruptedIOException When the current thread is interrupted while compressing
+     */
+    public void write(BitMap bitMap, OutputStream stream) throws IOException {
+        int width = bitMap.getWidth();
+        int height = bitMap.getHeight();
+        int[] canvas = bitMap.getCanvas();
+        boolean alpha = hasAlpha(canvas);
+        int bpp = alpha ? 4 : 3;
+        int rowBytes = width * bpp + 1;
+        int rowsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+        int chunks = (height - 1) / rowsPerChunk + 1;
+
+        byte[][] compressed = new byte[chunks][];
+        long[] adlers = new long[chunks];
+
+        try {
+            ParallelRange.run(chunks, (s, e) -> {
+                for (int c = s; c < e; c++) {
+                    int startRow = c * rowsPerChunk;
+                    int endRow = Math.min(startRow + rowsPerChunk, height);
+                    byte[] filtered = filterRows(canvas, width, bpp, startRow, endRow);
+
+                    Adler32 adler = new Adler32();
+                    adler.update(filtered);
+                    adlers[c] = adler.getValue();
+
+                    byte[] dictionary = null;
+                    if (c > 0 && level != Deflater.NO_COMPRESSION) {
+                        int dictionaryRows = Math.min(startRow, (DICTIONARY_BYTES - 1) / rowBytes + 1);
+                        byte[] previous = filterRows(canvas, width, bpp, startRow - dictionaryRows, startRow);
+                        dictionary = Arrays.copyOfRange(previous, Math.max(0, previous.length - DICTIONARY_BYTES), previous.length);
+                    }
+                    compressed[c] = deflate(filtered, dictionary, c == chunks - 1);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PNG encoding interrupted");
+        }
+
+        long adler = adlers[0];
+        for (int c = 1; c < chunks; c++) {
+            int startRow = c * rowsPerChunk;
+            long length = (long) (Math.min(startRow + rowsPerChunk, height) - startRow) * rowBytes;
+            adler = combineAdler(adler, adlers[c], length);
+        }
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.writeByte(8);
+        ihdr.writeByte(alpha ? 6 : 2);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        ihdr.writeByte(0);
+        writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+
+        byte[] zlibHeader = {0x78, zlibFlag()};
+        writeChunk(out, "IDAT", zlibHeader, 0, zlibHeader.length);
+        for (byte[] part : compressed) {
+            writeChunk(out, "IDAT", part, 0, part.length);
+        }
+        byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+        writeChunk(out, "IDAT", trailer, 0, trailer.length);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    private static boolean hasAlpha(int[] canvas) {
+        for (int c : canvas) {
+            if (c >>> 24 != 0xff) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Filters the rows, each prefixed with its filter type byte.
+     */
+    private byte[] filterRows(int[] canvas, int width, int bpp, int startRow, int endRow) {
+        int stride = width * bpp;
+        byte[] result = new byte[(endRow - startRow) * (stride + 1)];
+        byte[] previous = new byte[stride];
+        byte[] current = new byte[stride];
+        byte[][] candidates = filter == Filter.ADAPTIVE ? new byte[5][stride] : null;
+
+        if (startRow > 0) {
+            rawRow(canvas, width, bpp, startRow - 1, previous);
+        }
+        for (int y = startRow; y < endRow; y++) {
+            rawRow(canvas, width, bpp, y, current);
+            int offset = (y - startRow) * (stride + 1);
+
+            if (candidates == null) {
+                result[offset] = (byte) filter.type;
+                applyFilter(filter.type, current, previous, bpp, result, offset + 1);
+            } else {
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    applyFilter(type, current, previous, bpp, candidates[type], 0);
+                    long sum = 0;
+                    for (byte b : candidates[type]) {
+                        sum += Math.abs(b);
+                    }
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = type;
+                    }
+                }
+                result[offset] = (byte) best;
+                System.arraycopy(candidates[best], 0, result, offset + 1, stride);
+            }
+
+            byte[] t = previous;
+            previous = current;
+            current = t;
+        }
+        return result;
+    }
+
+    private static void rawRow(int[] canvas, int width, int bpp, int y, byte[] row) {
+        int src = y * width;
+        for (int x = 0, p = 0; x < width; x++, p += bpp) {
+            int c = canvas[src + x];
+            row[p] = (byte) (c >> 16);
+            row[p + 1] = (byte) (c >> 8);
+            row[p + 2] = (byte) c;
+            if (bpp == 4) {
+                row[p + 3] = (byte) (c >>> 24);
+            }
+        }
+    }
+
+    private static void applyFilter(int type, byte[] row, byte[] previous, int bpp, byte[] out, int offset) {
+        int length = row.length;
+        switch (type) {
+            case 0 -> System.arraycopy(row, 0, out, offset, length);
+            case 1 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    out[offset + i] = (byte) ((row[i] & 0xff) - left);
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < length; i++) {
+                    out[offset + i] = (byte) ((row[i] & 0xff) - (previous[i] & 0xff));
+                }
+            }
+            case 3 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    out[offset + i] = (byte) ((row[i] & 0xff) - ((left + (previous[i] & 0xff)) >> 1));
+                }
+            }
+            case 4 -> {
+                for (int i = 0; i < length; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    int up = previous[i] & 0xff;
+                    int upLeft = i >= bpp ? previous[i - bpp] & 0xff : 0;
+                    out[offset + i] = (byte) ((row[i] & 0xff) - paeth(left, up, upLeft));
+                }
+            }
+            default -> throw new IllegalArgumentException("unknown filter type : " + type);
+        }
+    }
+
+    static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Compresses the chunk into a raw deflate stream. every chunk except the last ends with a sync flush, so the streams can be joined.
+     */
+    private byte[] deflate(byte[] data, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(level == Deflater.NO_COMPRESSION ? data.length + data.length / 8 + 64 : data.length / 4 + 64);
+            byte[] buffer = new byte[1 << 16];
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length || !deflater.needsInput());
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte zlibFlag() {
+        int levelBits;
+        if (level <= 1) {
+            levelBits = 0;
+        } else if (level <= 5) {
+            levelBits = 1;
+        } else if (level == 6) {
+            levelBits = 2;
+        } else {
+            levelBits = 3;
+        }
+        int flag = levelBits << 6;
+        flag += 31 - (0x78 * 256 + flag) % 31;
+        return (byte) flag;
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive blocks, the same as zlib's {@code adler32_combine}.
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= ((long) ADLER_BASE << 1)) sum2 -= ((long) ADLER_BASE << 1);
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
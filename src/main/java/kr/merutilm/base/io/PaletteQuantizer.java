@@ -0,0 +1,485 @@
+package kr.merutilm.base.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import kr.merutilm.base.parallel.ParallelRange;
+
+/**
+ * Reduces a {@link BitMap} to a palette of at most 256 colors, for the indexed images and the displays of limited colors.
+ * <p>
+ * The palette is built by weighted k-means over a histogram of 5 bits per channel, counted in parallel.
+ * The pixels are mapped through an inverse color map, the nearest palette index of every cell of the histogram,
+ * so mapping a pixel is one lookup. The pixels with alpha under 128 are transparent, and take a transparent palette entry.
+ * <p>
+ * The ordered dithering runs in parallel by rows. The Floyd–Steinberg dithering runs the rows in a wavefront,
+ * every row following the previous row by two pixels, which gives the same result as the sequential order.
+ */
+public final class PaletteQuantizer {
+
+    private static final int BITS = 5;
+    private static final int CELLS = 1 << BITS * 3;
+    private static final int ALPHA_THRESHOLD = 128;
+    /**
+     * The interval of the pixels between the progress updates of the error diffusion rows.
+     */
+    private static final int PROGRESS_INTERVAL = 32;
+    private static final int[] BAYER = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21
+    };
+
+    public enum Dither {
+        NONE,
+        /**
+         * 8x8 Bayer matrix, scaled by the spacing of the palette.
+         */
+        ORDERED,
+        FLOYD_STEINBERG
+    }
+
+    /**
+     * The image of the palette indices.
+     */
+    public record Indexed(int width, int height, int[] palette, byte[] indices) {
+
+        public int getIndex(int x, int y) {
+            return indices[y * width + x] & 0xff;
+        }
+
+        public BitMap toBitMap() {
+            int[] canvas = new int[indices.length];
+            for (int i = 0; i < canvas.length; i++) {
+                canvas[i] = palette[indices[i] & 0xff];
+            }
+            return new BitMap(width, height, canvas);
+        }
+    }
+
+    private final int colors;
+    private final int iterations;
+
+    public PaletteQuantizer(int colors) {
+        this(colors, 16);
+    }
+
+    /**
+     * @param colors     the maximum number of the palette colors, from 2 to 256
+     * @param iterations the maximum number of the k-means iterations
+     */
+    public PaletteQuantizer(int colors, int iterations) {
+        if (colors < 2 || colors > 256) {
+            throw new IllegalArgumentException("invalid colors : " + colors);
+        }
+        if (iterations < 0) {
+            throw new IllegalArgumentException("invalid iterations : " + iterations);
+        }
+        this.colors = colors;
+        this.iterations = iterations;
+    }
+
+    public Indexed quantize(BitMap bitMap, Dither dither) throws InterruptedException {
+        return map(bitMap, palette(bitMap), dither);
+    }
+
+    /**
+     * Builds the palette of the bitmap. the first color is transparent if the bitmap has transparent pixels.
+     */
+    public int[] palette(BitMap bitMap) throws InterruptedException {
+        int[] canvas = bitMap.getCanvas();
+        int parts = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), canvas.length / CELLS));
+        int[][] counts = new int[parts][];
+        long[][] sums = new long[parts][];
+        boolean[] transparent = new boolean[parts];
+
+        ParallelRange.run(parts, parts, (s, e) -> {
+            for (int p = s; p < e; p++) {
+                int[] count = new int[CELLS];
+                long[] sum = new long[CELLS * 3];
+                int from = (int) ((long) canvas.length * p / parts);
+                int to = (int) ((long) canvas.length * (p + 1) / parts);
+                for (int i = from; i < to; i++) {
+                    int c = canvas[i];
+                    if (c >>> 24 < ALPHA_THRESHOLD) {
+                        transparent[p] = true;
+                        continue;
+                    }
+                    int cell = cell(c);
+                    count[cell]++;
+                    sum[cell * 3] += c >> 16 & 0xff;
+                    sum[cell * 3 + 1] += c >> 8 & 0xff;
+                    sum[cell * 3 + 2] += c & 0xff;
+                }
+                counts[p] = count;
+                sums[p] = sum;
+            }
+        });
+
+        boolean hasTransparent = false;
+        for (boolean t : transparent) {
+            hasTransparent |= t;
+        }
+
+        // merges the histograms into the list of the occupied cells
+        List<double[]> occupied = new ArrayList<>();
+        for (int cell = 0; cell < CELLS; cell++) {
+            long n = 0;
+            long r = 0;
+            long g = 0;
+            long b = 0;
+            for (int p = 0; p < parts; p++) {
+                n += counts[p][cell];
+                r += sums[p][cell * 3];
+                g += sums[p][cell * 3 + 1];
+                b += sums[p][cell * 3 + 2];
+            }
+            if (n > 0) {
+                occupied.add(new double[]{(double) r / n, (double) g / n, (double) b / n, n});
+            }
+        }
+        double[][] bins = occupied.toArray(double[][]::new);
+        int k = Math.min(hasTransparent ? colors - 1 : colors, bins.length);
+        double[][] centers = kMeans(bins, k);
+
+        int[] palette = new int[centers.length + (hasTransparent ? 1 : 0)];
+        int offset = hasTransparent ? 1 : 0;
+        for (int i = 0; i < centers.length; i++) {
+            palette[i + offset] = 0xff000000 | channel(centers[i][0]) << 16 | channel(centers[i][1]) << 8 | channel(centers[i][2]);
+        }
+        return palette;
+    }
+
+    private double[][] kMeans(double[][] bins, int k) throws InterruptedException {
+        if (k == 0) {
+            return new double[0][];
+        }
+        if (bins.length <= k) {
+            double[][] centers = new double[bins.length][];
+            for (int i = 0; i < bins.length; i++) {
+                centers[i] = Arrays.copyOf(bins[i], 3);
+            }
+            return centers;
+        }
+
+        // k-means++ seeding, taking the heaviest bin by weight times the squared distance every time instead of sampling
+        double[][] centers = new double[k][];
+        double[] distances = new double[bins.length];
+        Arrays.fill(distances, Double.MAX_VALUE);
+        int next = 0;
+        for (int i = 1; i < bins.length; i++) {
+            if (bins[i][3] > bins[next][3]) {
+                next = i;
+            }
+        }
+        for (int c = 0; c < k; c++) {
+            centers[c] = Arrays.copyOf(bins[next], 3);
+            int best = 0;
+            double bestScore = -1;
+            for (int i = 0; i < bins.length; i++) {
+                distances[i] = Math.min(distances[i], distance(bins[i], centers[c]));
+                double score = distances[i] * bins[i][3];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            next = best;
+        }
+
+        int[] assignment = new int[bins.length];
+        Arrays.fill(assignment, -1);
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            boolean[] changed = new boolean[1];
+            ParallelRange.run(bins.length, (s, e) -> {
+                boolean any = false;
+                for (int i = s; i < e; i++) {
+                    int nearest = nearest(centers, bins[i][0], bins[i][1], bins[i][2]);
+                    if (assignment[i] != nearest) {
+                        assignment[i] = nearest;
+                        any = true;
+                    }
+                }
+                if (any) {
+                    changed[0] = true;
+                }
+            });
+            if (!changed[0]) {
+                break;
+            }
+
+            double[][] sums = new double[k][4];
+            for (int i = 0; i < bins.length; i++) {
+                double[] sum = sums[assignment[i]];
+                double w = bins[i][3];
+                sum[0] += bins[i][0] * w;
+                sum[1] += bins[i][1] * w;
+                sum[2] += bins[i][2] * w;
+                sum[3] += w;
+            }
+            for (int c = 0; c < k; c++) {
+                if (sums[c][3] > 0) {
+                    centers[c] = new double[]{sums[c][0] / sums[c][3], sums[c][1] / sums[c][3], sums[c][2] / sums[c][3]};
+                }
+            }
+        }
+        return centers;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double dr = a[0] - b[0];
+        double dg = a[1] - b[1];
+        double db = a[2] - b[2];
+        return dr * dr + dg * dg + db * db;
+    }
+
+    private static int nearest(double[][] centers, double r, double g, double b) {
+        int nearest = 0;
+        double min = Double.MAX_VALUE;
+        for (int c = 0; c < centers.length; c++) {
+            double dr = r - centers[c][0];
+            double dg = g - centers[c][1];
+            double db = b - centers[c][2];
+            double d = dr * dr + dg * dg + db * db;
+            if (d < min) {
+                min = d;
+                nearest = c;
+            }
+        }
+        return nearest;
+    }
+
+    private static int channel(double v) {
+        return (int) Math.max(0, Math.min(255, Math.round(v)));
+    }
+
+    private static int cell(int c) {
+        return (c >> 19 & 0x1f) << 10 | (c >> 11 & 0x1f) << 5 | c >> 3 & 0x1f;
+    }
+
+    private static int cell(int r, int g, int b) {
+        return (r >> 3) << 10 | (g >> 3) << 5 | b >> 3;
+    }
+
+    /**
+     * Maps the bitmap to the palette.
+     *
+     * @param palette the palette of at most 256 colors. the transparent pixels take its first color with zero alpha, if any.
+     *                the palette may have no opaque color only when every pixel is transparent
+     */
+    public static Indexed map(BitMap bitMap, int[] palette, Dither dither) throws InterruptedException {
+        if (palette.length == 0 || palette.length > 256) {
+            throw new IllegalArgumentException("invalid palette length : " + palette.length);
+        }
+        int width = bitMap.getWidth();
+        int height = bitMap.getHeight();
+        int[] canvas = bitMap.getCanvas();
+        byte[] indices = new byte[canvas.length];
+        int transparentIndex = -1;
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] >>> 24 == 0) {
+                transparentIndex = i;
+                break;
+            }
+        }
+        byte transparent = (byte) transparentIndex;
+        boolean keepTransparent = transparentIndex >= 0;
+
+        if (Arrays.stream(palette).allMatch(c -> c >>> 24 == 0)) {
+            // nothing to map but the transparent pixels, such as for the palette of a blank bitmap
+            for (int c : canvas) {
+                if (c >>> 24 >= ALPHA_THRESHOLD) {
+                    throw new IllegalArgumentException("the palette has no opaque color");
+                }
+            }
+            Arrays.fill(indices, transparent);
+            return new Indexed(width, height, palette.clone(), indices);
+        }
+        byte[] inverse = inverseMap(palette);
+
+        switch (dither) {
+            case NONE -> ParallelRange.run(height, (s, e) -> {
+                for (int i = s * width; i < e * width; i++) {
+                    int c = canvas[i];
+                    indices[i] = keepTransparent && c >>> 24 < ALPHA_THRESHOLD ? transparent : inverse[cell(c)];
+                }
+            });
+            case ORDERED -> {
+                int spread = spread(palette);
+                ParallelRange.run(height, (s, e) -> {
+                    for (int y = s; y < e; y++) {
+                        for (int x = 0; x < width; x++) {
+                            int i = y * width + x;
+                            int c = canvas[i];
+                            if (keepTransparent && c >>> 24 < ALPHA_THRESHOLD) {
+                                indices[i] = transparent;
+                                continue;
+                            }
+                            int offset = (BAYER[(y & 7) << 3 | x & 7] * 2 - 63) * spread / 128;
+                            int r = clamp((c >> 16 & 0xff) + offset);
+                            int g = clamp((c >> 8 & 0xff) + offset);
+                            int b = clamp((c & 0xff) + offset);
+                            indices[i] = inverse[cell(r, g, b)];
+                        }
+                    }
+                });
+            }
+            case FLOYD_STEINBERG -> diffuse(canvas, width, height, palette, inverse, indices, keepTransparent, transparent);
+        }
+        return new Indexed(width, height, palette.clone(), indices);
+    }
+
+    /**
+     * Gets the average distance between a palette color and its nearest other color, the amplitude of the ordered dithering.
+     */
+    private static int spread(int[] palette) {
+        long sum = 0;
+        int count = 0;
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] >>> 24 == 0) {
+                continue;
+            }
+            double min = Double.MAX_VALUE;
+            for (int j = 0; j < palette.length; j++) {
+                if (i != j && palette[j] >>> 24 != 0) {
+                    int dr = (palette[i] >> 16 & 0xff) - (palette[j] >> 16 & 0xff);
+                    int dg = (palette[i] >> 8 & 0xff) - (palette[j] >> 8 & 0xff);
+                    int db = (palette[i] & 0xff) - (palette[j] & 0xff);
+                    min = Math.min(min, Math.sqrt(dr * dr + dg * dg + db * db));
+                }
+            }
+            if (min != Double.MAX_VALUE) {
+                sum += Math.round(min);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    /**
+     * Gets the nearest opaque palette index of the center of every cell.
+     */
+    private static byte[] inverseMap(int[] palette) throws InterruptedException {
+        int[] opaque = Arrays.stream(palette).filter(c -> c >>> 24 != 0).toArray();
+        int[] indices = new int[opaque.length];
+        for (int i = 0, j = 0; i < palette.length; i++) {
+            if (palette[i] >>> 24 != 0) {
+                indices[j++] = i;
+            }
+        }
+        byte[] inverse = new byte[CELLS];
+        ParallelRange.run(CELLS, (s, e) -> {
+            for (int cell = s; cell < e; cell++) {
+                int r = (cell >> 10 << 3) + 4;
+                int g = (cell >> 5 & 0x1f) << 3 | 4;
+                int b = (cell & 0x1f) << 3 | 4;
+                inverse[cell] = (byte) indices[nearest(opaque, r, g, b)];
+            }
+        });
+        return inverse;
+    }
+
+    private static int nearest(int[] palette, int r, int g, int b) {
+        int nearest = 0;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < palette.length; i++) {
+            int dr = r - (palette[i] >> 16 & 0xff);
+            int dg = g - (palette[i] >> 8 & 0xff);
+            int db = b - (palette[i] & 0xff);
+            int d = dr * dr + dg * dg + db * db;
+            if (d < min) {
+                min = d;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    /**
+     * Floyd–Steinberg error diffusion, the rows dealt to the threads in turn.
+     * A row handles a pixel after the previous row has handled the pixel at its lower right, so every error is complete when read.
+     * The errors are kept in sixteenths, in a ring of rows.
+     */
+    private static void diffuse(int[] canvas, int width, int height, int[] palette, byte[] inverse, byte[] indices,
+                                boolean keepTransparent, byte transparent) throws InterruptedException {
+        int parts = Math.min(height, Runtime.getRuntime().availableProcessors());
+        // the row y starts after the row y - parts has finished, which has read its errors, so parts + 2 rows are enough
+        int ring = parts + 2;
+        int[][] errors = new int[ring][(width + 2) * 3];
+        AtomicIntegerArray progress = new AtomicIntegerArray(height);
+
+        ParallelRange.run(parts, parts, (s, e) -> {
+            for (int p = s; p < e; p++) {
+                for (int y = p; y < height; y += parts) {
+                    int[] current = errors[y % ring];
+                    int[] below = errors[(y + 1) % ring];
+                    Arrays.fill(below, 0);
+                    int rightR = 0;
+                    int rightG = 0;
+                    int rightB = 0;
+
+                    for (int x = 0; x < width; x++) {
+                        if (y > 0 && x % PROGRESS_INTERVAL == 0) {
+                            awaitProgress(progress, y - 1, Math.min(width, x + PROGRESS_INTERVAL + 1));
+                        }
+                        int i = y * width + x;
+                        int c = canvas[i];
+                        int e3 = (x + 1) * 3;
+                        if (keepTransparent && c >>> 24 < ALPHA_THRESHOLD) {
+                            indices[i] = transparent;
+                            rightR = rightG = rightB = 0;
+                        } else {
+                            int r = clamp((c >> 16 & 0xff) + (current[e3] + rightR + 8 >> 4));
+                            int g = clamp((c >> 8 & 0xff) + (current[e3 + 1] + rightG + 8 >> 4));
+                            int b = clamp((c & 0xff) + (current[e3 + 2] + rightB + 8 >> 4));
+                            int index = inverse[cell(r, g, b)] & 0xff;
+                            indices[i] = (byte) index;
+                            int q = palette[index];
+                            int er = r - (q >> 16 & 0xff);
+                            int eg = g - (q >> 8 & 0xff);
+                            int eb = b - (q & 0xff);
+                            rightR = er * 7;
+                            rightG = eg * 7;
+                            rightB = eb * 7;
+                            below[e3 - 3] += er * 3;
+                            below[e3 - 2] += eg * 3;
+                            below[e3 - 1] += eb * 3;
+                            below[e3] += er * 5;
+                            below[e3 + 1] += eg * 5;
+                            below[e3 + 2] += eb * 5;
+                            below[e3 + 3] += er;
+                            below[e3 + 4] += eg;
+                            below[e3 + 5] += eb;
+                        }
+                        if ((x + 1) % PROGRESS_INTERVAL == 0) {
+                            progress.set(y, x + 1);
+                        }
+                    }
+                    progress.set(y, width);
+                }
+            }
+        });
+    }
+
+    private static void awaitProgress(AtomicIntegerArray progress, int row, int pixels) {
+        int spins = 0;
+        while (progress.get(row) < pixels) {
+            if (++spins < 1000) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package kr.merutilm.base.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import kr.merutilm.base.parallel.ParallelRange;
+
+/**
+ * Fills the unknown pixels of a {@link BitMap} with a multigrid push-pull pyramid.
+ * <p>
+ * The push phase halves the image repeatedly, averaging the known pixels of every 2x2 block with their weights.
+ * The pull phase walks back up, and blends every pixel with the bilinear upsampling of the coarser level by its missing weight.
+ * Known pixels are kept as they are, and holes receive smooth colors from the surrounding known pixels.
+ * Each level runs in parallel by rows, so the whole fill costs O(n).
+ */
+public final class PushPullInpainter {
+
+    /**
+     * The channels of a pyramid pixel : weight, alpha, red, green, blue.
+     */
+    private static final int CHANNELS = 5;
+
+    private final IntPredicate known;
+
+    /**
+     * @param known the test whether the pixel value is known
+     */
+    public PushPullInpainter(IntPredicate known) {
+        this.known = known;
+    }
+
+    /**
+     * Creates the inpainter treating the pixels of value 0 as unknown.
+     */
+    public PushPullInpainter() {
+        this(c -> c != 0);
+    }
+
+    /**
+     * Fills the unknown pixels.
+     *
+     * @return the new filled bitmap
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public BitMap fill(BitMap bitMap) throws InterruptedException {
+        int width = bitMap.getWidth();
+        int height = bitMap.getHeight();
+        int[] source = bitMap.getCanvas();
+
+        List<Level> levels = new ArrayList<>();
+        Level base = new Level(width, height);
+        ParallelRange.run(height, (s, e) -> {
+            for (int i = s * width; i < e * width; i++) {
+                int c = source[i];
+                if (known.test(c)) {
+                    int p = i * CHANNELS;
+                    base.data[p] = 1;
+                    base.data[p + 1] = c >>> 24;
+                    base.data[p + 2] = c >> 16 & 0xff;
+                    base.data[p + 3] = c >> 8 & 0xff;
+                    base.data[p + 4] = c & 0xff;
+                }
+            }
+        });
+        levels.add(base);
+
+        Level current = base;
+        while (current.width > 1 || current.height > 1) {
+            Level fine = current;
+            Level coarse = new Level((fine.width + 1) / 2, (fine.height + 1) / 2);
+            ParallelRange.run(coarse.height, (s, e) -> push(fine, coarse, s, e));
+            levels.add(coarse);
+            current = coarse;
+        }
+
+        for (int k = levels.size() - 2; k >= 0; k--) {
+            Level fine = levels.get(k);
+            Level coarse = levels.get(k + 1);
+            ParallelRange.run(fine.height, (s, e) -> pull(fine, coarse, s, e));
+        }
+
+        int[] result = new int[source.length];
+        ParallelRange.run(height, (s, e) -> {
+            for (int i = s * width; i < e * width; i++) {
+                if (known.test(source[i])) {
+                    result[i] = source[i];
+                    continue;
+                }
+                int p = i * CHANNELS;
+                result[i] = channel(base.data[p + 1]) << 24 | channel(base.data[p + 2]) << 16 | channel(base.data[p + 3]) << 8 | channel(base.data[p + 4]);
+            }
+        });
+        return bitMap.createAnother(result);
+    }
+
+    /**
+     * Averages the known pixels of every 2x2 block of the fine level.
+     */
+    private static void push(Level fine, Level coarse, int startRow, int endRow) {
+        for (int y = startRow; y < endRow; y++) {
+            for (int x = 0; x < coarse.width; x++) {
+                float w = 0;
+                float a = 0;
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                for (int dy = 0; dy < 2; dy++) {
+                    int fy = 2 * y + dy;
+                    if (fy >= fine.height) {
+                        continue;
+                    }
+                    for (int dx = 0; dx < 2; dx++) {
+                        int fx = 2 * x + dx;
+                        if (fx >= fine.width) {
+                            continue;
+                        }
+                        int p = (fy * fine.width + fx) * CHANNELS;
+                        float fw = fine.data[p];
+                        w += fw;
+                        a += fw * fine.data[p + 1];
+                        r += fw * fine.data[p + 2];
+                        g += fw * fine.data[p + 3];
+                        b += fw * fine.data[p + 4];
+                    }
+                }
+                if (w > 0) {
+                    int p = (y * coarse.width + x) * CHANNELS;
+                    coarse.data[p] = Math.min(1, w);
+                    coarse.data[p + 1] = a / w;
+                    coarse.data[p + 2] = r / w;
+                    coarse.data[p + 3] = g / w;
+                    coarse.data[p + 4] = b / w;
+                }
+            }
+        }
+    }
+
+    /**
+     * Blends every pixel of the fine level with the bilinear upsampling of the coarse level by its missing weight.
+     */
+    private static void pull(Level fine, Level coarse, int startRow, int endRow) {
+        for (int y = startRow; y < endRow; y++) {
+            float cy = Math.max(0, Math.min(coarse.height - 1, (y + 0.5f) / 2 - 0.5f));
+            int y0 = (int) cy;
+            int y1 = Math.min(y0 + 1, coarse.height - 1);
+            float ty = cy - y0;
+
+            for (int x = 0; x < fine.width; x++) {
+                int p = (y * fine.width + x) * CHANNELS;
+                float w = fine.data[p];
+                if (w >= 1) {
+                    continue;
+                }
+                float cx = Math.max(0, Math.min(coarse.width - 1, (x + 0.5f) / 2 - 0.5f));
+                int x0 = (int) cx;
+                int x1 = Math.min(x0 + 1, coarse.width - 1);
+                float tx = cx - x0;
+
+                int p00 = (y0 * coarse.width + x0) * CHANNELS;
+                int p01 = (y0 * coarse.width + x1) * CHANNELS;
+                int p10 = (y1 * coarse.width + x0) * CHANNELS;
+                int p11 = (y1 * coarse.width + x1) * CHANNELS;
+                float m = 1 - w;
+                for (int c = 1; c < CHANNELS; c++) {
+                    float top = coarse.data[p00 + c] + (coarse.data[p01 + c] - coarse.data[p00 + c]) * tx;
+                    float bottom = coarse.data[p10 + c] + (coarse.data[p11 + c] - coarse.data[p10 + c]) * tx;
+                    fine.data[p + c] = w * fine.data[p + c] + m * (top + (bottom - top) * ty);
+                }
+                fine.data[p] = coarse.data[p00] > 0 ? 1 : 0;
+            }
+        }
+    }
+
+    private static int channel(float v) {
+        return Math.max(0, Math.min(255, Math.round(v)));
+    }
+
+    private static final class Level {
+        private final int width;
+        private final int height;
+        private final float[] data;
+
+        private Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.data = new float[width * height * CHANNELS];
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package kr.merutilm.base.io;
+
+import java.util.Arrays;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.IntMatrix;
+
+/**
+ * Minimum, maximum and median filters over square windows of {@code (2 * radius + 1)^2}, with the cost per pixel independent of the radius.
+ * <p>
+ * The minimum and maximum filters are separable, and every line is filtered by the van Herk/Gil-Werman algorithm,
+ * three comparisons per pixel for any radius. The horizontal pass runs in parallel by rows, and the vertical pass by columns.
+ * The median filter is the constant-time median of Perreault and Hébert, sliding column histograms with two-level kernel histograms,
+ * in parallel by tiles.
+ * <p>
+ * The {@link BitMap} overloads filter the four 8-bit channels independently. The {@link IntMatrix} overloads compare the whole values,
+ * and the median of {@link IntMatrix} requires the values from 0 to 255.
+ * The windows are clipped to the canvas for the minimum and maximum, and the edge pixels are repeated for the median.
+ */
+public final class RankFilter {
+    private RankFilter() {
+
+    }
+
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int MIN_CHANNELS = 2;
+    private static final int MAX_CHANNELS = 3;
+
+    private static final int TILE_WIDTH = 256;
+    /**
+     * The tiles of the median are tall, as the column histograms are built once for a tile.
+     */
+    private static final int TILE_HEIGHT = 1024;
+
+    public static IntMatrix dilate(IntMatrix matrix, int radius) throws InterruptedException {
+        return matrix.createAnother(filter(matrix.getCanvas(), matrix.getWidth(), radius, MAX));
+    }
+
+    public static IntMatrix erode(IntMatrix matrix, int radius) throws InterruptedException {
+        return matrix.createAnother(filter(matrix.getCanvas(), matrix.getWidth(), radius, MIN));
+    }
+
+    public static IntMatrix open(IntMatrix matrix, int radius) throws InterruptedException {
+        return dilate(erode(matrix, radius), radius);
+    }
+
+    public static IntMatrix close(IntMatrix matrix, int radius) throws InterruptedException {
+        return erode(dilate(matrix, radius), radius);
+    }
+
+    public static BitMap dilate(BitMap bitMap, int radius) throws InterruptedException {
+        return bitMap.createAnother(filter(bitMap.getCanvas(), bitMap.getWidth(), radius, MAX_CHANNELS));
+    }
+
+    public static BitMap erode(BitMap bitMap, int radius) throws InterruptedException {
+        return bitMap.createAnother(filter(bitMap.getCanvas(), bitMap.getWidth(), radius, MIN_CHANNELS));
+    }
+
+    public static BitMap open(BitMap bitMap, int radius) throws InterruptedException {
+        return dilate(erode(bitMap, radius), radius);
+    }
+
+    public static BitMap close(BitMap bitMap, int radius) throws InterruptedException {
+        return erode(dilate(bitMap, radius), radius);
+    }
+
+    /**
+     * Filters the values of 0 to 255 with the median.
+     *
+     * @throws IllegalArgumentException When any value is out of 0 to 255
+     */
+    public static IntMatrix median(IntMatrix matrix, int radius) throws InterruptedException {
+        int[] canvas = matrix.getCanvas();
+        for (int v : canvas) {
+            if (v < 0 || v > 255) {
+                throw new IllegalArgumentException("the value out of 0 to 255 : " + v);
+            }
+        }
+        return matrix.createAnother(median(canvas, matrix.getWidth(), radius, new int[]{0}));
+    }
+
+    public static BitMap median(BitMap bitMap, int radius) throws InterruptedException {
+        return bitMap.createAnother(median(bitMap.getCanvas(), bitMap.getWidth(), radius, new int[]{24, 16, 8, 0}));
+    }
+
+    private static void checkRadius(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("invalid radius : " + radius);
+        }
+    }
+
+    //MIN, MAX
+
+    private static int[] filter(int[] canvas, int width, int radius, int op) throws InterruptedException {
+        checkRadius(radius);
+        int height = canvas.length / width;
+        int[] result = canvas.clone();
+        if (radius == 0) {
+            return result;
+        }
+        ParallelRange.run(height, (s, e) -> {
+            LineBuffer buffer = new LineBuffer(width, radius);
+            for (int y = s; y < e; y++) {
+                buffer.filter(result, y * width, 1, width, radius, op);
+            }
+        });
+        ParallelRange.run(width, (s, e) -> {
+            LineBuffer buffer = new LineBuffer(height, radius);
+            for (int x = s; x < e; x++) {
+                buffer.filter(result, x, width, height, radius, op);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The buffers of the van Herk/Gil-Werman filter of a line.
+     */
+    private static final class LineBuffer {
+        private final int[] padded;
+        private final int[] prefix;
+        private final int[] suffix;
+
+        LineBuffer(int length, int radius) {
+            int window = 2 * radius + 1;
+            int size = (length + 2 * radius + window - 1) / window * window;
+            this.padded = new int[size];
+            this.prefix = new int[size];
+            this.suffix = new int[size];
+        }
+
+        /**
+         * Filters the line in place. the line is padded by the identity of the operation on both sides,
+         * and every window is the suffix of a block combined with the prefix of the next block.
+         */
+        void filter(int[] canvas, int offset, int stride, int length, int radius, int op) {
+            int window = 2 * radius + 1;
+            int identity = identity(op);
+            int size = padded.length;
+            for (int i = 0; i < size; i++) {
+                int x = i - radius;
+                padded[i] = x >= 0 && x < length ? canvas[offset + x * stride] : identity;
+            }
+            for (int b = 0; b < size; b += window) {
+                prefix[b] = padded[b];
+                for (int i = b + 1; i < b + window; i++) {
+                    prefix[i] = combine(prefix[i - 1], padded[i], op);
+                }
+                int last = b + window - 1;
+                suffix[last] = padded[last];
+                for (int i = last - 1; i >= b; i--) {
+                    suffix[i] = combine(suffix[i + 1], padded[i], op);
+                }
+            }
+            for (int x = 0; x < length; x++) {
+                canvas[offset + x * stride] = combine(suffix[x], prefix[x + 2 * radius], op);
+            }
+        }
+    }
+
+    private static int identity(int op) {
+        return switch (op) {
+            case MIN -> Integer.MAX_VALUE;
+            case MAX -> Integer.MIN_VALUE;
+            case MIN_CHANNELS -> 0xffffffff;
+            default -> 0;
+        };
+    }
+
+    private static int combine(int a, int b, int op) {
+        return switch (op) {
+            case MIN -> Math.min(a, b);
+            case MAX -> Math.max(a, b);
+            case MIN_CHANNELS -> Math.min(a >>> 24, b >>> 24) << 24 | Math.min(a >> 16 & 0xff, b >> 16 & 0xff) << 16
+                                 | Math.min(a >> 8 & 0xff, b >> 8 & 0xff) << 8 | Math.min(a & 0xff, b & 0xff);
+            default -> Math.max(a >>> 24, b >>> 24) << 24 | Math.max(a >> 16 & 0xff, b >> 16 & 0xff) << 16
+                       | Math.max(a >> 8 & 0xff, b >> 8 & 0xff) << 8 | Math.max(a & 0xff, b & 0xff);
+        };
+    }
+
+    //MEDIAN
+
+    private static int[] median(int[] canvas, int width, int radius, int[] shifts) throws InterruptedException {
+        checkRadius(radius);
+        int height = canvas.length / width;
+        int[] result = new int[canvas.length];
+        if (radius == 0) {
+            System.arraycopy(canvas, 0, result, 0, canvas.length);
+            return result;
+        }
+        int tilesX = (width - 1) / TILE_WIDTH + 1;
+        int tilesY = (height - 1) / TILE_HEIGHT + 1;
+
+        ParallelRange.run(tilesX * tilesY, (s, e) -> {
+            MedianBuffer buffer = new MedianBuffer(Math.min(TILE_WIDTH, width) + 2 * radius);
+            for (int t = s; t < e; t++) {
+                int x0 = t % tilesX * TILE_WIDTH;
+                int y0 = t / tilesX * TILE_HEIGHT;
+                int x1 = Math.min(x0 + TILE_WIDTH, width);
+                int y1 = Math.min(y0 + TILE_HEIGHT, height);
+                for (int shift : shifts) {
+                    buffer.median(canvas, result, width, height, radius, shift, x0, y0, x1, y1);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The histograms of the constant-time median of a tile.
+     * The kernel histogram has 16 coarse bins of 16 values and 256 fine bins,
+     * and a fine segment is brought up to date only when the median falls in its coarse bin.
+     */
+    private static final class MedianBuffer {
+        private final int[] columnCoarse;
+        private final int[] columnFine;
+        private final int[] coarse = new int[16];
+        private final int[] fine = new int[256];
+        /**
+         * The first column of the window the fine segment is up to date with.
+         */
+        private final int[] updated = new int[16];
+
+        MedianBuffer(int columns) {
+            this.columnCoarse = new int[columns * 16];
+            this.columnFine = new int[columns * 256];
+        }
+
+        void median(int[] canvas, int[] result, int width, int height, int radius, int shift, int x0, int y0, int x1, int y1) {
+            int window = 2 * radius + 1;
+            int columns = x1 - x0 + 2 * radius;
+            int half = window * window / 2 + 1;
+            Arrays.fill(columnCoarse, 0, columns * 16, 0);
+            Arrays.fill(columnFine, 0, columns * 256, 0);
+
+            for (int dy = -radius; dy <= radius; dy++) {
+                int row = clamp(y0 + dy, height) * width;
+                for (int j = 0; j < columns; j++) {
+                    add(j, canvas[row + clamp(x0 - radius + j, width)] >>> shift & 0xff, 1);
+                }
+            }
+
+            for (int y = y0; y < y1; y++) {
+                if (y > y0) {
+                    int out = clamp(y - radius - 1, height) * width;
+                    int in = clamp(y + radius, height) * width;
+                    for (int j = 0; j < columns; j++) {
+                        int x = clamp(x0 - radius + j, width);
+                        add(j, canvas[out + x] >>> shift & 0xff, -1);
+                        add(j, canvas[in + x] >>> shift & 0xff, 1);
+                    }
+                }
+
+                Arrays.fill(coarse, 0);
+                Arrays.fill(updated, Integer.MIN_VALUE);
+                for (int j = 0; j < window; j++) {
+                    for (int b = 0; b < 16; b++) {
+                        coarse[b] += columnCoarse[j * 16 + b];
+                    }
+                }
+
+                for (int i = 0; i < x1 - x0; i++) {
+                    if (i > 0) {
+                        int in = (i + 2 * radius) * 16;
+                        int out = (i - 1) * 16;
+                        for (int b = 0; b < 16; b++) {
+                            coarse[b] += columnCoarse[in + b] - columnCoarse[out + b];
+                        }
+                    }
+
+                    int sum = 0;
+                    int b = 0;
+                    while (sum + coarse[b] < half) {
+                        sum += coarse[b++];
+                    }
+                    updateFine(b, i, window);
+
+                    int v = b * 16;
+                    while (sum + fine[v] < half) {
+                        sum += fine[v++];
+                    }
+                    result[y * width + x0 + i] |= v << shift;
+                }
+            }
+        }
+
+        private void add(int column, int value, int count) {
+            columnCoarse[column * 16 + (value >> 4)] += count;
+            columnFine[column * 256 + value] += count;
+        }
+
+        /**
+         * Brings the fine segment of the coarse bin up to date with the window starting at the column.
+         */
+        private void updateFine(int b, int start, int window) {
+            int segment = b * 16;
+            int last = updated[b];
+            if (last <= start - window) {
+                for (int v = 0; v < 16; v++) {
+                    fine[segment + v] = 0;
+                }
+                for (int j = start; j < start + window; j++) {
+                    int column = j * 256 + segment;
+                    for (int v = 0; v < 16; v++) {
+                        fine[segment + v] += columnFine[column + v];
+                    }
+                }
+            } else {
+                for (int j = last; j < start; j++) {
+                    int in = (j + window) * 256 + segment;
+                    int out = j * 256 + segment;
+                    for (int v = 0; v < 16; v++) {
+                        fine[segment + v] += columnFine[in + v] - columnFine[out + v];
+                    }
+                }
+            }
+            updated[b] = start;
+        }
+    }
+
+    private static int clamp(int v, int length) {
+        return Math.max(0, Math.min(length - 1, v));
+    }
+}
@@ -0,0 +1,210 @@
+package kr.merutilm.base.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * Decodes the raster of a {@link BufferedImage} straight into the packed ARGB canvas of {@link BitMap}.
+ * <p>
+ * Packed int rasters, interleaved byte rasters of 1, 3 or 4 bands and indexed rasters are read directly from their data buffers,
+ * in parallel by rows, in one pass and without any per-pixel object.
+ * Other layouts fall back to {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}, still in parallel by rows.
+ * <p>
+ * The samples of 8-bit gray rasters are used as they are for all three channels,
+ * unlike {@code getRGB} which converts them from the linear gray color space.
+ */
+public final class RasterDecoder {
+    private RasterDecoder() {
+
+    }
+
+    public static BitMap decode(BufferedImage image) throws InterruptedException {
+        int[] canvas = new int[image.getWidth() * image.getHeight()];
+        decode(image, canvas);
+        return new BitMap(image.getWidth(), image.getHeight(), canvas);
+    }
+
+    /**
+     * Decodes the image into the target canvas.
+     *
+     * @param image  the image
+     * @param target the canvas, at least as long as width * height
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static void decode(BufferedImage image, int[] target) throws InterruptedException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (target.length < width * height) {
+            throw new IllegalArgumentException("Length mismatch : " + width + "x" + height + ", but the provided array length is " + target.length);
+        }
+
+        WritableRaster raster = image.getRaster();
+        ColorModel model = image.getColorModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        RowDecoder decoder = null;
+
+        if (buffer instanceof DataBufferInt intBuffer && intBuffer.getNumBanks() == 1
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sampleModel
+            && model instanceof DirectColorModel directModel) {
+            decoder = packedInt(raster, intBuffer, sampleModel, directModel);
+        } else if (buffer instanceof DataBufferByte byteBuffer && byteBuffer.getNumBanks() == 1
+                   && raster.getSampleModel() instanceof PixelInterleavedSampleModel sampleModel) {
+            if (model instanceof IndexColorModel indexModel && sampleModel.getNumBands() == 1) {
+                decoder = indexedByte(raster, byteBuffer, sampleModel, indexModel);
+            } else if (model instanceof ComponentColorModel && model.getColorSpace().isCS_sRGB() || sampleModel.getNumBands() == 1) {
+                decoder = interleavedByte(raster, byteBuffer, sampleModel, model);
+            }
+        } else if (model instanceof IndexColorModel indexModel && raster.getNumBands() == 1) {
+            decoder = indexed(raster, indexModel);
+        }
+
+        if (decoder == null) {
+            decoder = (y, t, row) -> image.getRGB(0, y, width, 1, t, row, width);
+        }
+
+        RowDecoder finalDecoder = decoder;
+        ParallelRange.run(height, (s, e) -> {
+            for (int y = s; y < e; y++) {
+                finalDecoder.decode(y, target, y * width);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowDecoder {
+        void decode(int y, int[] target, int targetOffset);
+    }
+
+    /**
+     * Gets the index of the first sample of the row in the data buffer.
+     */
+    private static int rowStart(WritableRaster raster, DataBuffer buffer, int y, int scanlineStride, int pixelStride) {
+        return buffer.getOffset() + (y - raster.getSampleModelTranslateY()) * scanlineStride - raster.getSampleModelTranslateX() * pixelStride;
+    }
+
+    private static RowDecoder packedInt(WritableRaster raster, DataBufferInt buffer, SinglePixelPackedSampleModel sampleModel, DirectColorModel model) {
+        int[] data = buffer.getData();
+        int width = raster.getWidth();
+        int stride = sampleModel.getScanlineStride();
+        int alphaMask = model.getAlphaMask();
+        boolean argb = model.getRedMask() == 0xff0000 && model.getGreenMask() == 0xff00 && model.getBlueMask() == 0xff
+                       && (alphaMask == 0xff000000 || alphaMask == 0);
+        boolean bgr = model.getRedMask() == 0xff && model.getGreenMask() == 0xff00 && model.getBlueMask() == 0xff0000 && alphaMask == 0;
+        if (!argb && !bgr) {
+            return null;
+        }
+        boolean premultiplied = model.isAlphaPremultiplied();
+        return (y, target, row) -> {
+            int src = rowStart(raster, buffer, y, stride, 1);
+            if (bgr) {
+                for (int x = 0; x < width; x++) {
+                    int c = data[src + x];
+                    target[row + x] = 0xff000000 | (c & 0xff) << 16 | c & 0xff00 | c >> 16 & 0xff;
+                }
+            } else if (alphaMask == 0) {
+                for (int x = 0; x < width; x++) {
+                    target[row + x] = 0xff000000 | data[src + x];
+                }
+            } else if (premultiplied) {
+                for (int x = 0; x < width; x++) {
+                    target[row + x] = HexColor.unpremultiply(data[src + x]);
+                }
+            } else {
+                System.arraycopy(data, src, target, row, width);
+            }
+        };
+    }
+
+    private static RowDecoder interleavedByte(WritableRaster raster, DataBufferByte buffer, PixelInterleavedSampleModel sampleModel, ColorModel model) {
+        byte[] data = buffer.getData();
+        int width = raster.getWidth();
+        int stride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] offsets = sampleModel.getBandOffsets();
+        int bands = sampleModel.getNumBands();
+        for (int size : model.getComponentSize()) {
+            if (size != 8) {
+                return null;
+            }
+        }
+        boolean premultiplied = model.isAlphaPremultiplied();
+
+        switch (bands) {
+            case 1 -> {
+                // gray, the sample is used as the value of all channels
+                int o = offsets[0];
+                return (y, target, row) -> {
+                    int src = rowStart(raster, buffer, y, stride, pixelStride) + o;
+                    for (int x = 0; x < width; x++, src += pixelStride) {
+                        int v = data[src] & 0xff;
+                        target[row + x] = 0xff000000 | v << 16 | v << 8 | v;
+                    }
+                };
+            }
+            case 3, 4 -> {
+                int ro = offsets[0];
+                int go = offsets[1];
+                int bo = offsets[2];
+                int ao = bands == 4 ? offsets[3] : -1;
+                return (y, target, row) -> {
+                    int src = rowStart(raster, buffer, y, stride, pixelStride);
+                    for (int x = 0; x < width; x++, src += pixelStride) {
+                        int a = ao < 0 ? 0xff : data[src + ao] & 0xff;
+                        int c = a << 24 | (data[src + ro] & 0xff) << 16 | (data[src + go] & 0xff) << 8 | data[src + bo] & 0xff;
+                        target[row + x] = premultiplied ? HexColor.unpremultiply(c) : c;
+                    }
+                };
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static RowDecoder indexedByte(WritableRaster raster, DataBufferByte buffer, PixelInterleavedSampleModel sampleModel, IndexColorModel model) {
+        byte[] data = buffer.getData();
+        int width = raster.getWidth();
+        int stride = sampleModel.getScanlineStride();
+        int pixelStride = sampleModel.getPixelStride();
+        int offset = sampleModel.getBandOffsets()[0];
+        int[] palette = palette(model);
+        return (y, target, row) -> {
+            int src = rowStart(raster, buffer, y, stride, pixelStride) + offset;
+            for (int x = 0; x < width; x++, src += pixelStride) {
+                target[row + x] = palette[data[src] & 0xff];
+            }
+        };
+    }
+
+    private static RowDecoder indexed(WritableRaster raster, IndexColorModel model) {
+        int width = raster.getWidth();
+        int[] palette = palette(model);
+        return (y, target, row) -> {
+            int[] samples = raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, (int[]) null);
+            for (int x = 0; x < width; x++) {
+                target[row + x] = palette[samples[x]];
+            }
+        };
+    }
+
+    /**
+     * Gets the ARGB palette of the model, padded to 256 entries.
+     */
+    private static int[] palette(IndexColorModel model) {
+        int[] palette = new int[Math.max(256, model.getMapSize())];
+        model.getRGBs(palette);
+        return palette;
+    }
+}
@@ -0,0 +1,422 @@
+package kr.merutilm.base.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import kr.merutilm.base.exception.UnsupportedVersionException;
+import kr.merutilm.base.struct.DoubleMatrix;
+import kr.merutilm.base.struct.IntMatrix;
+
+/**
+ * Raw canvas file of {@link IntMatrix}, {@link BitMap} or {@link DoubleMatrix}, accessed through {@link FileChannel#map}.
+ * <p>
+ * The file is a 32-byte little-endian header followed by the canvas, row by row.
+ * <pre>
+ * 0  int  magic "MRCV"
+ * 4  int  version
+ * 8  int  type
+ * 12 int  width
+ * 16 int  height
+ * 20 int  reserved
+ * 24 long sequence
+ * 32      canvas
+ * </pre>
+ * The canvas can be read in place through {@link #intView()} and {@link #doubleView()},
+ * or copied in one bulk transfer into a matrix.
+ * <p>
+ * The sequence works as a seqlock, so the same file can be shared by a producer and consumers, also across processes.
+ * Every store makes the sequence odd while writing and even after, with release semantics,
+ * and every load retries until it copies the canvas under the same even sequence.
+ * A load gives up with an {@link IOException} when the sequence stays at the same odd value for {@link #STALE_STORE_MILLIS},
+ * as the producer has probably died while storing.
+ * Only one producer may write at a time.
+ */
+public final class RawCanvasFile implements Closeable {
+
+    private static final int MAGIC = 0x4D524356;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SEQUENCE_OFFSET = 24;
+    /**
+     * The time a load waits for a store in progress, before the store is considered abandoned.
+     */
+    public static final long STALE_STORE_MILLIS = 5000;
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public enum Type {
+        INT(Integer.BYTES),
+        ARGB(Integer.BYTES),
+        DOUBLE(Double.BYTES);
+
+        private final int bytes;
+
+        Type(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Type type;
+    private final int width;
+    private final int height;
+
+    private RawCanvasFile(FileChannel channel, MappedByteBuffer buffer, Type type, int width, int height) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.type = type;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates the file of the size, or overwrites the header of the existing one. the canvas is filled with zero when the file is new.
+     */
+    public static RawCanvasFile create(File file, Type type, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Length : " + width + "x" + height);
+        }
+        long size = HEADER_SIZE + (long) width * height * type.bytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too large to map : " + width + "x" + height + " " + type);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() != size) {
+                channel.truncate(Math.min(channel.size(), size));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, type.ordinal());
+            buffer.putInt(12, width);
+            buffer.putInt(16, height);
+            buffer.putInt(20, 0);
+            return new RawCanvasFile(channel, buffer, type, width, height);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the existing file.
+     *
+     * @param writable whether to map the file writable
+     * @throws IOException                 When the file is not a raw canvas file
+     * @throws UnsupportedVersionException When the file is written by the other version
+     */
+    public static RawCanvasFile open(File file, boolean writable) throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("not a raw canvas file : " + file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("not a raw canvas file : " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new UnsupportedVersionException("unsupported raw canvas version : " + header.getInt(4));
+            }
+            int typeIndex = header.getInt(8);
+            int width = header.getInt(12);
+            int height = header.getInt(16);
+            if (typeIndex < 0 || typeIndex >= Type.values().length || width <= 0 || height <= 0) {
+                throw new IOException("corrupted raw canvas header : " + file);
+            }
+            Type type = Type.values()[typeIndex];
+            long size = HEADER_SIZE + (long) width * height * type.bytes;
+            if (channel.size() < size || size > Integer.MAX_VALUE) {
+                throw new IOException("truncated raw canvas file : " + file);
+            }
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new RawCanvasFile(channel, buffer, type, width, height);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static void write(File file, BitMap bitMap) throws IOException {
+        try (RawCanvasFile raw = create(file, Type.ARGB, bitMap.getWidth(), bitMap.getHeight())) {
+            raw.store(bitMap);
+        }
+    }
+
+    public static void write(File file, IntMatrix matrix) throws IOException {
+        try (RawCanvasFile raw = create(file, matrix instanceof BitMap ? Type.ARGB : Type.INT, matrix.getWidth(), matrix.getHeight())) {
+            raw.store(matrix);
+        }
+    }
+
+    public static void write(File file, DoubleMatrix matrix) throws IOException {
+        try (RawCanvasFile raw = create(file, Type.DOUBLE, matrix.getWidth(), matrix.getHeight())) {
+            raw.store(matrix);
+        }
+    }
+
+    public static BitMap readBitMap(File file) throws IOException {
+        try (RawCanvasFile raw = open(file, false)) {
+            return raw.loadBitMap();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("canvas loading interrupted");
+        }
+    }
+
+    public static IntMatrix readIntMatrix(File file) throws IOException {
+        try (RawCanvasFile raw = open(file, false)) {
+            return raw.loadIntMatrix();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("canvas loading interrupted");
+        }
+    }
+
+    public static DoubleMatrix readDoubleMatrix(File file) throws IOException {
+        try (RawCanvasFile raw = open(file, false)) {
+            return raw.loadDoubleMatrix();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("canvas loading interrupted");
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the current sequence. it is odd while a store is in progress.
+     */
+    public long getSequence() {
+        return (long) LONG_VIEW.getAcquire(buffer, SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Gets the view of the mapped int canvas, without copying. the reads are not synchronized with the producer.
+     */
+    public IntBuffer intView() {
+        checkType(Type.INT, Type.ARGB);
+        return buffer.slice(HEADER_SIZE, width * height * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Gets the view of the mapped double canvas, without copying. the reads are not synchronized with the producer.
+     */
+    public DoubleBuffer doubleView() {
+        checkType(Type.DOUBLE);
+        return buffer.slice(HEADER_SIZE, width * height * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Stores the canvas, and publishes it to the consumers.
+     *
+     * @return the new sequence
+     */
+    public long store(IntMatrix matrix) {
+        checkType(Type.INT, Type.ARGB);
+        checkSize(matrix.getWidth(), matrix.getHeight());
+        long sequence = beginStore();
+        intView().put(matrix.getCanvas());
+        return endStore(sequence);
+    }
+
+    /**
+     * Stores the canvas, and publishes it to the consumers.
+     *
+     * @return the new sequence
+     */
+    public long store(DoubleMatrix matrix) {
+        checkType(Type.DOUBLE);
+        checkSize(matrix.getWidth(), matrix.getHeight());
+        long sequence = beginStore();
+        doubleView().put(matrix.getCanvas());
+        return endStore(sequence);
+    }
+
+    public BitMap loadBitMap() throws IOException, InterruptedException {
+        int[] canvas = new int[width * height];
+        load(canvas);
+        return new BitMap(width, height, canvas);
+    }
+
+    public IntMatrix loadIntMatrix() throws IOException, InterruptedException {
+        int[] canvas = new int[width * height];
+        load(canvas);
+        return type == Type.ARGB ? new BitMap(width, height, canvas) : new IntMatrix(width, height, canvas);
+    }
+
+    public DoubleMatrix loadDoubleMatrix() throws IOException, InterruptedException {
+        double[] canvas = new double[width * height];
+        load(canvas);
+        return new DoubleMatrix(width, height, canvas);
+    }
+
+    /**
+     * Copies the consistent snapshot of the canvas into the target, waiting for the store in progress.
+     *
+     * @return the sequence of the snapshot
+     * @throws IOException          When a store stays in progress for {@link #STALE_STORE_MILLIS}
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public long load(int[] target) throws IOException, InterruptedException {
+        checkType(Type.INT, Type.ARGB);
+        checkLength(target.length);
+        IntBuffer view = intView();
+        StoreWait wait = new StoreWait();
+        while (true) {
+            long sequence = getSequence();
+            if ((sequence & 1) == 0) {
+                view.get(0, target, 0, width * height);
+                VarHandle.acquireFence();
+                if (sequence == (long) LONG_VIEW.getVolatile(buffer, SEQUENCE_OFFSET)) {
+                    return sequence;
+                }
+            }
+            wait.check(sequence);
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Copies the consistent snapshot of the canvas into the target, waiting for the store in progress.
+     *
+     * @return the sequence of the snapshot
+     * @throws IOException          When a store stays in progress for {@link #STALE_STORE_MILLIS}
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public long load(double[] target) throws IOException, InterruptedException {
+        checkType(Type.DOUBLE);
+        checkLength(target.length);
+        DoubleBuffer view = doubleView();
+        StoreWait wait = new StoreWait();
+        while (true) {
+            long sequence = getSequence();
+            if ((sequence & 1) == 0) {
+                view.get(0, target, 0, width * height);
+                VarHandle.acquireFence();
+                if (sequence == (long) LONG_VIEW.getVolatile(buffer, SEQUENCE_OFFSET)) {
+                    return sequence;
+                }
+            }
+            wait.check(sequence);
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * The wait of a load for the store in progress.
+     */
+    private static final class StoreWait {
+        private long sequence = -1;
+        private long since;
+
+        void check(long sequence) throws IOException, InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if ((sequence & 1) == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (sequence != this.sequence) {
+                this.sequence = sequence;
+                this.since = now;
+            } else if (now - since > TimeUnit.MILLISECONDS.toNanos(STALE_STORE_MILLIS)) {
+                throw new IOException("the store of the sequence " + sequence + " is not finished, the producer may have died while storing");
+            }
+        }
+    }
+
+    /**
+     * Waits until the producer publishes the canvas newer than the sequence.
+     *
+     * @return the new sequence
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public long awaitNewer(long sequence) throws InterruptedException {
+        long current;
+        while ((current = getSequence()) <= sequence || (current & 1) == 1) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+
+    /**
+     * Writes the changes of the mapped canvas to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long beginStore() {
+        long sequence = (long) LONG_VIEW.getVolatile(buffer, SEQUENCE_OFFSET);
+        if ((sequence & 1) == 1) {
+            // recover from the producer died while storing
+            sequence++;
+        }
+        LONG_VIEW.setVolatile(buffer, SEQUENCE_OFFSET, sequence + 1);
+        VarHandle.storeStoreFence();
+        return sequence + 2;
+    }
+
+    private long endStore(long sequence) {
+        LONG_VIEW.setRelease(buffer, SEQUENCE_OFFSET, sequence);
+        return sequence;
+    }
+
+    private void checkType(Type... expected) {
+        for (Type t : expected) {
+            if (t == type) {
+                return;
+            }
+        }
+        throw new IllegalStateException("the canvas type is " + type);
+    }
+
+    private void checkSize(int width, int height) {
+        if (this.width != width || this.height != height) {
+            throw new IllegalArgumentException("Size mismatch : " + this.width + "x" + this.height + ", but the provided matrix is " + width + "x" + height);
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length < width * height) {
+            throw new IllegalArgumentException("Length mismatch : " + width + "x" + height + ", but the provided array length is " + length);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package kr.merutilm.base.io;
+
+import java.util.Arrays;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * Separable resampler of {@link BitMap}, in parallel by rows.
+ * <p>
+ * Resizing runs a vertical and a horizontal pass, each with the weight table precomputed once per output row or column,
+ * in fixed point on the premultiplied pixels. Both passes sum whole source rows per channel, which the JIT compiler vectorizes,
+ * and the horizontal pass reads the columns as the rows of the transposed canvas.
+ * When downscaling, the filter is stretched to cover the source pixels, so it does not alias.
+ * Rotation samples the filter from a table of subpixel phases, and allocates only the bounding box of the rotated image.
+ */
+public final class Resampler {
+
+    /**
+     * The fixed-point precision of the weights.
+     */
+    private static final int SHIFT = 14;
+    private static final int ONE = 1 << SHIFT;
+    /**
+     * The number of the subpixel phases of the rotation table.
+     */
+    private static final int PHASES = 64;
+    /**
+     * The side of the square tiles of the transposition.
+     */
+    private static final int TILE = 32;
+
+    public enum Filter {
+        BOX(0.5) {
+            @Override
+            double weight(double x) {
+                return x >= -0.5 && x < 0.5 ? 1 : 0;
+            }
+        },
+        BILINEAR(1) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                return x < 1 ? 1 - x : 0;
+            }
+        },
+        /**
+         * Mitchell-Netravali cubic, B = C = 1/3.
+         */
+        MITCHELL(2) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1) {
+                    return (7 * x * x * x - 12 * x * x + 16.0 / 3) / 6;
+                }
+                if (x < 2) {
+                    return (-7.0 / 3 * x * x * x + 12 * x * x - 20 * x + 32.0 / 3) / 6;
+                }
+                return 0;
+            }
+        },
+        LANCZOS3(3) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1e-8) {
+                    return 1;
+                }
+                if (x >= 3) {
+                    return 0;
+                }
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        };
+
+        private final double radius;
+
+        Filter(double radius) {
+            this.radius = radius;
+        }
+
+        abstract double weight(double x);
+    }
+
+    private final Filter filter;
+
+    public Resampler(Filter filter) {
+        this.filter = filter;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Resizes the bitmap.
+     *
+     * @return the new resized bitmap
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public BitMap resize(BitMap bitMap, int width, int height) throws InterruptedException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Length : " + width + "x" + height);
+        }
+        int sw = bitMap.getWidth();
+        int sh = bitMap.getHeight();
+        int[] canvas = bitMap.getCanvas();
+        // the opaque pixels are premultiplied already, so the opaque canvas is read as it is
+        int[] source = isOpaque(canvas) ? canvas : premultiplied(canvas, sw, sh);
+
+        int[] vertical;
+        if (height == sh) {
+            vertical = source;
+        } else {
+            Weights weights = weights(sh, height);
+            int[] v = new int[sw * height];
+            ParallelRange.run(height, (s, e) -> {
+                int[] row = new int[sw];
+                int[] a = new int[sw];
+                int[] r = new int[sw];
+                int[] g = new int[sw];
+                int[] b = new int[sw];
+                for (int y = s; y < e; y++) {
+                    accumulateRows(source, sw, weights, y, row, a, r, g, b);
+                    packRow(a, r, g, b, v, y * sw, sw);
+                }
+            });
+            vertical = v;
+        }
+
+        if (width == sw) {
+            int[] result = vertical == canvas ? canvas.clone() : vertical;
+            unpremultiply(result, height, width);
+            return new BitMap(width, height, result);
+        }
+        // the columns are resampled as the rows of the transposed canvas, by the same vectorized pass
+        int[] columns = transpose(vertical, sw, height);
+        Weights weights = weights(sw, width);
+        int[] h = new int[height * width];
+        ParallelRange.run(width, (s, e) -> {
+            int[] row = new int[height];
+            int[] a = new int[height];
+            int[] r = new int[height];
+            int[] g = new int[height];
+            int[] b = new int[height];
+            for (int x = s; x < e; x++) {
+                accumulateRows(columns, height, weights, x, row, a, r, g, b);
+                packRow(a, r, g, b, h, x * height, height);
+            }
+        });
+        int[] result = transpose(h, height, width);
+        unpremultiply(result, height, width);
+        return new BitMap(width, height, result);
+    }
+
+    /**
+     * Rotates the bitmap clockwise around its center. the result is the bounding box of the rotated bitmap, transparent outside it.
+     *
+     * @param degrees the angle in degrees
+     * @return the new rotated bitmap
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public BitMap rotate(BitMap bitMap, double degrees) throws InterruptedException {
+        int sw = bitMap.getWidth();
+        int sh = bitMap.getHeight();
+        double radians = Math.toRadians(degrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        int width = Math.max(1, (int) Math.ceil(Math.abs(sw * cos) + Math.abs(sh * sin) - 1e-9));
+        int height = Math.max(1, (int) Math.ceil(Math.abs(sw * sin) + Math.abs(sh * cos) - 1e-9));
+
+        int[] source = premultiplied(bitMap.getCanvas(), sw, sh);
+        int taps = Math.max(2, (int) Math.ceil(filter.radius * 2));
+        int[][] table = phaseTable(taps);
+        int offset = taps / 2 - 1;
+
+        double scx = sw / 2.0;
+        double scy = sh / 2.0;
+        double dcx = width / 2.0;
+        double dcy = height / 2.0;
+        int[] result = new int[width * height];
+
+        ParallelRange.run(height, (s, e) -> {
+            int[] column = new int[taps * 4];
+            for (int y = s; y < e; y++) {
+                double dy = y + 0.5 - dcy;
+                for (int x = 0; x < width; x++) {
+                    double dx = x + 0.5 - dcx;
+                    double sx = dx * cos + dy * sin + scx - 0.5;
+                    double sy = -dx * sin + dy * cos + scy - 0.5;
+                    if (sx <= -filter.radius - 0.5 || sy <= -filter.radius - 0.5 || sx >= sw - 0.5 + filter.radius || sy >= sh - 0.5 + filter.radius) {
+                        continue;
+                    }
+                    int fx = (int) Math.floor(sx);
+                    int fy = (int) Math.floor(sy);
+                    int[] wx = table[Math.min(PHASES - 1, (int) ((sx - fx) * PHASES))];
+                    int[] wy = table[Math.min(PHASES - 1, (int) ((sy - fy) * PHASES))];
+                    int x0 = fx - offset;
+                    int y0 = fy - offset;
+
+                    for (int j = 0; j < taps; j++) {
+                        int py = y0 + j;
+                        long a = 0;
+                        long r = 0;
+                        long g = 0;
+                        long b = 0;
+                        if (py >= 0 && py < sh) {
+                            int row = py * sw;
+                            for (int i = 0; i < taps; i++) {
+                                int px = x0 + i;
+                                if (px < 0 || px >= sw) {
+                                    continue;
+                                }
+                                int c = source[row + px];
+                                int w = wx[i];
+                                a += (long) (c >>> 24) * w;
+                                r += (long) (c >> 16 & 0xff) * w;
+                                g += (long) (c >> 8 & 0xff) * w;
+                                b += (long) (c & 0xff) * w;
+                            }
+                        }
+                        column[j * 4] = (int) a;
+                        column[j * 4 + 1] = (int) r;
+                        column[j * 4 + 2] = (int) g;
+                        column[j * 4 + 3] = (int) b;
+                    }
+                    long a = 0;
+                    long r = 0;
+                    long g = 0;
+                    long b = 0;
+                    for (int j = 0; j < taps; j++) {
+                        int w = wy[j];
+                        a += (long) column[j * 4] * w;
+                        r += (long) column[j * 4 + 1] * w;
+                        g += (long) column[j * 4 + 2] * w;
+                        b += (long) column[j * 4 + 3] * w;
+                    }
+                    result[y * width + x] = pack(a, r, g, b, SHIFT * 2);
+                }
+            }
+        });
+
+        unpremultiply(result, height, width);
+        return new BitMap(width, height, result);
+    }
+
+    /**
+     * The contributions of the source pixels to every output pixel, clamped to the source and normalized.
+     */
+    private record Weights(int[] start, int[] count, int[][] values) {
+    }
+
+    private Weights weights(int sourceLength, int length) {
+        double scale = (double) length / sourceLength;
+        double stretch = Math.max(1, 1 / scale);
+        double support = filter.radius * stretch;
+        int[] start = new int[length];
+        int[] count = new int[length];
+        int[][] values = new int[length][];
+        double[] w = new double[(int) Math.ceil(support * 2) + 2];
+
+        for (int i = 0; i < length; i++) {
+            double center = (i + 0.5) / scale - 0.5;
+            int first = Math.max(0, (int) Math.floor(center - support) + 1);
+            int last = Math.min(sourceLength - 1, (int) Math.floor(center + support));
+            if (last < first) {
+                first = last = Math.max(0, Math.min(sourceLength - 1, (int) Math.round(center)));
+            }
+            int n = last - first + 1;
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                w[k] = filter.weight((first + k - center) / stretch);
+                sum += w[k];
+            }
+            if (sum == 0) {
+                // the box filter can miss every sample at the exact border
+                int nearest = Math.max(first, Math.min(last, (int) Math.round(center)));
+                first = last = nearest;
+                n = 1;
+                w[0] = sum = 1;
+            }
+            start[i] = first;
+            count[i] = n;
+            values[i] = normalize(w, n, sum);
+        }
+        return new Weights(start, count, values);
+    }
+
+    /**
+     * Builds the weights of the filter sampled at the subpixel phases, for the rotation.
+     */
+    private int[][] phaseTable(int taps) {
+        int[][] table = new int[PHASES][];
+        double[] w = new double[taps];
+        int offset = taps / 2 - 1;
+        for (int p = 0; p < PHASES; p++) {
+            double phase = (p + 0.5) / PHASES;
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                w[k] = filter.weight(k - offset - phase);
+                sum += w[k];
+            }
+            if (sum == 0) {
+                w[phase < 0.5 ? offset : offset + 1] = sum = 1;
+            }
+            table[p] = normalize(w, taps, sum);
+        }
+        return table;
+    }
+
+    /**
+     * Converts the weights to fixed point summing exactly to one.
+     */
+    private static int[] normalize(double[] w, int n, double sum) {
+        int[] values = new int[n];
+        int total = 0;
+        int largest = 0;
+        for (int k = 0; k < n; k++) {
+            values[k] = (int) Math.round(w[k] / sum * ONE);
+            total += values[k];
+            if (values[k] > values[largest]) {
+                largest = k;
+            }
+        }
+        values[largest] += ONE - total;
+        return values;
+    }
+
+    /**
+     * Sums the weighted source rows of the output row into the channels, a whole row at a time.
+     * Every source row is copied into the buffer first, and every channel is summed by its own loop from the start of the arrays,
+     * which the JIT compiler vectorizes.
+     */
+    private static void accumulateRows(int[] source, int width, Weights weights, int i, int[] row, int[] a, int[] r, int[] g, int[] b) {
+        int[] values = weights.values[i];
+        int n = weights.count[i];
+        int offset = weights.start[i] * width;
+        Arrays.fill(a, 0);
+        Arrays.fill(r, 0);
+        Arrays.fill(g, 0);
+        Arrays.fill(b, 0);
+        for (int k = 0; k < n; k++, offset += width) {
+            int w = values[k];
+            System.arraycopy(source, offset, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                a[x] += (row[x] >>> 24) * w;
+            }
+            for (int x = 0; x < width; x++) {
+                r[x] += (row[x] >> 16 & 0xff) * w;
+            }
+            for (int x = 0; x < width; x++) {
+                g[x] += (row[x] >> 8 & 0xff) * w;
+            }
+            for (int x = 0; x < width; x++) {
+                b[x] += (row[x] & 0xff) * w;
+            }
+        }
+    }
+
+    /**
+     * Packs the channels summed by {@link #accumulateRows(int[], int, Weights, int, int[], int[], int[], int[], int[])} into the row,
+     * like {@link #pack(long, long, long, long, int)}. the sums fit in an int, so the loop is vectorized too.
+     */
+    private static void packRow(int[] a, int[] r, int[] g, int[] b, int[] target, int offset, int length) {
+        int half = 1 << (SHIFT - 1);
+        for (int x = 0; x < length; x++) {
+            int ca = Math.max(0, Math.min(255, (a[x] + half) >> SHIFT));
+            int cr = Math.max(0, Math.min(ca, (r[x] + half) >> SHIFT));
+            int cg = Math.max(0, Math.min(ca, (g[x] + half) >> SHIFT));
+            int cb = Math.max(0, Math.min(ca, (b[x] + half) >> SHIFT));
+            target[offset + x] = ca << 24 | cr << 16 | cg << 8 | cb;
+        }
+    }
+
+    /**
+     * Rounds and clamps the premultiplied channels, keeping every color channel under the alpha.
+     */
+    private static int pack(long sa, long sr, long sg, long sb, int shift) {
+        long half = 1L << (shift - 1);
+        int a = (int) Math.max(0, Math.min(255, (sa + half) >> shift));
+        int r = (int) Math.max(0, Math.min(a, (sr + half) >> shift));
+        int g = (int) Math.max(0, Math.min(a, (sg + half) >> shift));
+        int b = (int) Math.max(0, Math.min(a, (sb + half) >> shift));
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Transposes the canvas in square tiles, so both the reads and the writes stay within a few cache lines.
+     *
+     * @return the new canvas of {@code height} columns and {@code width} rows
+     */
+    private static int[] transpose(int[] canvas, int width, int height) throws InterruptedException {
+        int[] result = new int[canvas.length];
+        int tiles = (height + TILE - 1) / TILE;
+        ParallelRange.run(tiles, (s, e) -> {
+            for (int y0 = s * TILE; y0 < Math.min(height, e * TILE); y0 += TILE) {
+                int y1 = Math.min(height, y0 + TILE);
+                for (int x0 = 0; x0 < width; x0 += TILE) {
+                    int x1 = Math.min(width, x0 + TILE);
+                    for (int y = y0; y < y1; y++) {
+                        int src = y * width;
+                        for (int x = x0; x < x1; x++) {
+                            result[x * height + y] = canvas[src + x];
+                        }
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    private static boolean isOpaque(int[] canvas) {
+        for (int c : canvas) {
+            if (c >>> 24 != 255) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] premultiplied(int[] canvas, int width, int height) throws InterruptedException {
+        int[] result = new int[canvas.length];
+        ParallelRange.run(height, (s, e) -> {
+            for (int i = s * width; i < e * width; i++) {
+                result[i] = HexColor.premultiply(canvas[i]);
+            }
+        });
+        return result;
+    }
+
+    private static void unpremultiply(int[] canvas, int height, int width) throws InterruptedException {
+        ParallelRange.run(height, (s, e) -> {
+            for (int i = s * width; i < e * width; i++) {
+                canvas[i] = HexColor.unpremultiply(canvas[i]);
+            }
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package kr.merutilm.base.io;
+
+/**
+ * The source of the full resolution tiles of {@link TiledPyramid}.
+ */
+public interface TileSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads the region of the full resolution image. it may be called by several threads at once.
+     *
+     * @param x      the left of the region
+     * @param y      the top of the region
+     * @param width  the width of the region
+     * @param height the height of the region
+     * @return the bitmap of the region
+     */
+    BitMap read(int x, int y, int width, int height);
+
+    /**
+     * Creates the source reading the regions of the bitmap.
+     */
+    static TileSource of(BitMap bitMap) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return bitMap.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return bitMap.getHeight();
+            }
+
+            @Override
+            public BitMap read(int x, int y, int width, int height) {
+                int[] source = bitMap.getCanvas();
+                int[] canvas = new int[width * height];
+                for (int r = 0; r < height; r++) {
+                    System.arraycopy(source, (y + r) * bitMap.getWidth() + x, canvas, r * width, width);
+                }
+                return new BitMap(width, height, canvas);
+            }
+        };
+    }
+}
@@ -0,0 +1,291 @@
+package kr.merutilm.base.io;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.merutilm.base.parallel.ParallelRange;
+import kr.merutilm.base.struct.HexColor;
+
+/**
+ * Mip-mapped pyramid of square tiles, for panning and zooming the images too large to keep in memory.
+ * <p>
+ * Level 0 is read from the {@link TileSource}, and every tile of the level k is the 2x2 average of four tiles of the level k-1,
+ * built lazily on the first request. The tiles are kept in a bounded LRU cache,
+ * so a viewport touches only the tiles it needs at the level matching its zoom.
+ */
+public final class TiledPyramid {
+
+    private final TileSource source;
+    private final int tileSize;
+    private final int levels;
+    private final Map<TileKey, BitMap> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private record TileKey(int level, int x, int y) {
+    }
+
+    /**
+     * @param source        the source of the full resolution tiles
+     * @param tileSize      the width and height of the tile
+     * @param maxCachedTiles the maximum number of the tiles kept in the cache
+     */
+    public TiledPyramid(TileSource source, int tileSize, int maxCachedTiles) {
+        if (tileSize <= 0 || maxCachedTiles <= 0) {
+            throw new IllegalArgumentException("invalid tile size or cache size : " + tileSize + ", " + maxCachedTiles);
+        }
+        this.source = source;
+        this.tileSize = tileSize;
+
+        int level = 0;
+        while (levelWidth(level) > tileSize || levelHeight(level) > tileSize) {
+            level++;
+        }
+        this.levels = level + 1;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TileKey, BitMap> eldest) {
+                return size() > maxCachedTiles;
+            }
+        };
+    }
+
+    public TiledPyramid(BitMap bitMap, int tileSize, int maxCachedTiles) {
+        this(TileSource.of(bitMap), tileSize, maxCachedTiles);
+    }
+
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    public int getHeight() {
+        return source.getHeight();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Gets the number of the levels. the last level is a single tile.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    public int levelWidth(int level) {
+        return (int) (((long) getWidth() + (1L << level) - 1) >> level);
+    }
+
+    public int levelHeight(int level) {
+        return (int) (((long) getHeight() + (1L << level) - 1) >> level);
+    }
+
+    public int tileColumns(int level) {
+        return (levelWidth(level) - 1) / tileSize + 1;
+    }
+
+    public int tileRows(int level) {
+        return (levelHeight(level) - 1) / tileSize + 1;
+    }
+
+    /**
+     * Gets the tile, building it and its missing children when they are not cached.
+     * The tiles at the right and bottom edges can be smaller than the tile size.
+     */
+    public BitMap getTile(int level, int tileX, int tileY) {
+        if (level < 0 || level >= levels || tileX < 0 || tileY < 0 || tileX >= tileColumns(level) || tileY >= tileRows(level)) {
+            throw new IllegalArgumentException("tile out of range : level " + level + ", " + tileX + ", " + tileY);
+        }
+        TileKey key = new TileKey(level, tileX, tileY);
+        synchronized (cache) {
+            BitMap tile = cache.get(key);
+            if (tile != null) {
+                hits.incrementAndGet();
+                return tile;
+            }
+        }
+        misses.incrementAndGet();
+
+        // built outside the lock, so two threads can build the same tile at worst
+        BitMap tile = level == 0 ? readBase(tileX, tileY) : downsample(level, tileX, tileY);
+        synchronized (cache) {
+            cache.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Builds all tiles of the levels from the bottom to the top, in parallel by tiles.
+     * Only useful when the cache can hold them.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public void buildAll() throws InterruptedException {
+        for (int level = 0; level < levels; level++) {
+            int l = level;
+            int columns = tileColumns(level);
+            ParallelRange.run(columns * tileRows(level), (s, e) -> {
+                for (int i = s; i < e; i++) {
+                    getTile(l, i % columns, i / columns);
+                }
+            });
+        }
+    }
+
+    /**
+     * Renders the viewport with bilinear filtering, from the level matching the zoom.
+     * The area outside the image is transparent.
+     *
+     * @param centerX the x of the viewport center, in full resolution pixels
+     * @param centerY the y of the viewport center, in full resolution pixels
+     * @param zoom    the output pixels per full resolution pixel
+     * @param width   the width of the viewport
+     * @param height  the height of the viewport
+     * @return the rendered viewport
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public BitMap render(double centerX, double centerY, double zoom, int width, int height) throws InterruptedException {
+        if (zoom <= 0) {
+            throw new IllegalArgumentException("invalid zoom : " + zoom);
+        }
+        int level = Math.max(0, Math.min(levels - 1, (int) Math.floor(-Math.log(zoom) / Math.log(2))));
+        double levelScale = 1.0 / (1L << level);
+        double step = 1 / (zoom * (1L << level));
+        double originX = (centerX - width / 2.0 / zoom) * levelScale;
+        double originY = (centerY - height / 2.0 / zoom) * levelScale;
+        int lw = levelWidth(level);
+        int lh = levelHeight(level);
+
+        int tx0 = clamp((int) Math.floor(originX - 1) / tileSize, tileColumns(level) - 1);
+        int ty0 = clamp((int) Math.floor(originY - 1) / tileSize, tileRows(level) - 1);
+        int tx1 = clamp((int) Math.floor(originX + width * step + 1) / tileSize, tileColumns(level) - 1);
+        int ty1 = clamp((int) Math.floor(originY + height * step + 1) / tileSize, tileRows(level) - 1);
+        int columns = tx1 - tx0 + 1;
+        BitMap[] tiles = new BitMap[columns * (ty1 - ty0 + 1)];
+        ParallelRange.run(tiles.length, (s, e) -> {
+            for (int i = s; i < e; i++) {
+                tiles[i] = getTile(level, tx0 + i % columns, ty0 + i / columns);
+            }
+        });
+
+        int[] canvas = new int[width * height];
+        ParallelRange.run(height, (s, e) -> {
+            for (int y = s; y < e; y++) {
+                double ly = originY + (y + 0.5) * step - 0.5;
+                if (ly < -0.5 || ly >= lh - 0.5) {
+                    continue;
+                }
+                int y0 = (int) Math.floor(ly);
+                double fy = ly - y0;
+                int ya = Math.max(0, y0);
+                int yb = Math.min(lh - 1, y0 + 1);
+
+                for (int x = 0; x < width; x++) {
+                    double lx = originX + (x + 0.5) * step - 0.5;
+                    if (lx < -0.5 || lx >= lw - 0.5) {
+                        continue;
+                    }
+                    int x0 = (int) Math.floor(lx);
+                    double fx = lx - x0;
+                    int xa = Math.max(0, x0);
+                    int xb = Math.min(lw - 1, x0 + 1);
+
+                    int c00 = HexColor.premultiply(pixel(tiles, columns, tx0, ty0, xa, ya));
+                    int c01 = HexColor.premultiply(pixel(tiles, columns, tx0, ty0, xb, ya));
+                    int c10 = HexColor.premultiply(pixel(tiles, columns, tx0, ty0, xa, yb));
+                    int c11 = HexColor.premultiply(pixel(tiles, columns, tx0, ty0, xb, yb));
+                    int c = 0;
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        double top = (c00 >>> shift & 0xff) * (1 - fx) + (c01 >>> shift & 0xff) * fx;
+                        double bottom = (c10 >>> shift & 0xff) * (1 - fx) + (c11 >>> shift & 0xff) * fx;
+                        c |= (int) Math.round(top * (1 - fy) + bottom * fy) << shift;
+                    }
+                    canvas[y * width + x] = HexColor.unpremultiply(c);
+                }
+            }
+        });
+        return new BitMap(width, height, canvas);
+    }
+
+    public int getCachedTileCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private int clamp(int tile, int max) {
+        return Math.max(0, Math.min(max, tile));
+    }
+
+    private int pixel(BitMap[] tiles, int columns, int tx0, int ty0, int x, int y) {
+        BitMap tile = tiles[(y / tileSize - ty0) * columns + x / tileSize - tx0];
+        return tile.getCanvas()[(y % tileSize) * tile.getWidth() + x % tileSize];
+    }
+
+    private BitMap readBase(int tileX, int tileY) {
+        int x = tileX * tileSize;
+        int y = tileY * tileSize;
+        return source.read(x, y, Math.min(tileSize, getWidth() - x), Math.min(tileSize, getHeight() - y));
+    }
+
+    /**
+     * Builds the tile by averaging the 2x2 blocks of its four children, premultiplied by alpha.
+     */
+    private BitMap downsample(int level, int tileX, int tileY) {
+        int childWidth = levelWidth(level - 1);
+        int childHeight = levelHeight(level - 1);
+        int width = Math.min(tileSize, levelWidth(level) - tileX * tileSize);
+        int height = Math.min(tileSize, levelHeight(level) - tileY * tileSize);
+        int childColumns = tileColumns(level - 1);
+        int childRows = tileRows(level - 1);
+
+        BitMap[] children = new BitMap[4];
+        for (int i = 0; i < 4; i++) {
+            int cx = tileX * 2 + (i & 1);
+            int cy = tileY * 2 + (i >> 1);
+            if (cx < childColumns && cy < childRows) {
+                children[i] = getTile(level - 1, cx, cy);
+            }
+        }
+
+        int originX = tileX * 2 * tileSize;
+        int originY = tileY * 2 * tileSize;
+        int[] canvas = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int k = 0; k < 4; k++) {
+                    int gx = Math.min(childWidth - 1, originX + 2 * x + (k & 1)) - originX;
+                    int gy = Math.min(childHeight - 1, originY + 2 * y + (k >> 1)) - originY;
+                    BitMap child = children[(gy / tileSize) * 2 + gx / tileSize];
+                    int c = HexColor.premultiply(child.getCanvas()[(gy % tileSize) * child.getWidth() + gx % tileSize]);
+                    a += c >>> 24;
+                    r += c >> 16 & 0xff;
+                    g += c >> 8 & 0xff;
+                    b += c & 0xff;
+                }
+                canvas[y * width + x] = HexColor.unpremultiply((a + 2) >> 2 << 24 | (r + 2) >> 2 << 16 | (g + 2) >> 2 << 8 | (b + 2) >> 2);
+            }
+        }
+        return new BitMap(width, height, canvas);
+    }
+}
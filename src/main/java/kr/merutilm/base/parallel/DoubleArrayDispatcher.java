@@ -4,11 +4,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import kr.merutilm.base.exception.IllegalRenderStateException;
 import kr.merutilm.base.struct.DoubleMatrix;
+import kr.merutilm.base.struct.DoubleTileSnapshot;
+import kr.merutilm.base.struct.OffHeapDoubleMatrix;
 import kr.merutilm.base.struct.Point2D;
 import kr.merutilm.base.util.AdvancedMath;
+import kr.merutilm.base.util.CanvasPool;
 import kr.merutilm.base.util.TaskManager;
 
 
@@ -17,9 +21,22 @@ public class DoubleArrayDispatcher {
     private final int renderID;
     private final DoubleMatrix bitMap;
     private DoubleMatrix original;
+    private DoubleTileSnapshot snapshot;
+    private boolean copyOnWrite = false;
     protected final double initTime;
     private boolean rendered = false;
     private final AtomicInteger renderedAmount = new AtomicInteger();
+    private final AtomicLong skippedAmount = new AtomicLong();
+    private boolean subdivision = false;
+
+    /**
+     * The side length of the tiles distributed to the threads in the subdivision mode.
+     */
+    private static final int SUBDIVISION_TILE_SIZE = 64;
+    /**
+     * Rectangles with a side not longer than this value are evaluated pixel by pixel.
+     */
+    private static final int SUBDIVISION_MIN_SIZE = 4;
 
     private final List<DoubleArrayRenderer> renderers = new ArrayList<>();
 
@@ -89,8 +106,14 @@ public class DoubleArrayDispatcher {
                 continue;
             }
 
+            if (subdivision) {
+                updateOriginal(tex2DOriginal); // update tex2D to the canvas with applied previous shaders
+                dispatchSubdivided(renderer, canvas, time);
+                continue;
+            }
+
             boolean[] renderedPixels = new boolean[bitMap.getLength()];
-            original = bitMap.cloneCanvas(); // update tex2D to the canvas with applied previous shaders
+            updateOriginal(tex2DOriginal); // update tex2D to the canvas with applied previous shaders
             final int rpy = bitMap.getHeight() / Runtime.getRuntime().availableProcessors() + 1;
             final int xRes = bitMap.getWidth();
             final int yRes = bitMap.getHeight();
@@ -115,8 +138,8 @@ public class DoubleArrayDispatcher {
 
                                 if (!renderedPixels[i]) {
                                     renderedPixels[i] = true;
-                                    double c = renderer.execute(x, py, xRes, yRes, (double) x / xRes, (double) py / yRes, i, original.pipette(i), time);
-                                    canvas[i] = c;
+                                    double c = renderer.execute(x, py, xRes, yRes, (double) x / xRes, (double) py / yRes, i, source(i), time);
+                                    write(canvas, i, c);
                                     renderedAmount.getAndIncrement();
                                 }
                             }
@@ -130,8 +153,8 @@ public class DoubleArrayDispatcher {
 
                             if (!renderedPixels[i]) {
                                 renderedPixels[i] = true;
-                                double c = renderer.execute((int) p.x(), (int) p.y(), xRes, yRes, p.x() / xRes, p.y() / yRes, i, original.pipette(i), time);
-                                canvas[i] = c;
+                                double c = renderer.execute((int) p.x(), (int) p.y(), xRes, yRes, p.x() / xRes, p.y() / yRes, i, source(i), time);
+                                write(canvas, i, c);
                                 renderedAmount.getAndIncrement();
                             }
                         }
@@ -154,15 +177,196 @@ public class DoubleArrayDispatcher {
 
         }
 
+        snapshot = null;
         if (original != tex2DOriginal) {
+            original.releaseCanvas(CanvasPool.shared());
             original = tex2DOriginal; // revert to original canvas for reuse
         }
 
     }
 
 
+    /**
+     * Copies the canvas into tex2D on a pooled array, returning the previous copy of this dispatch to the pool.
+     */
+    private void updateOriginal(DoubleMatrix tex2DOriginal) {
+        if (copyOnWrite) {
+            snapshot = new DoubleTileSnapshot(bitMap);
+            return;
+        }
+        if (original != null && original != tex2DOriginal) {
+            original.releaseCanvas(CanvasPool.shared());
+        }
+        original = bitMap.cloneCanvas(CanvasPool.shared());
+    }
+
+    private double source(int i) {
+        return snapshot == null ? original.pipette(i) : snapshot.read(i);
+    }
+
+    private void write(double[] canvas, int i, double value) {
+        if (snapshot == null) {
+            canvas[i] = value;
+        } else {
+            snapshot.write(i, value);
+        }
+    }
+
+    /**
+     * Renders with Mariani–Silver rectangle subdivision.
+     * The canvas is cut into tiles which the threads take one by one.
+     * When the border of a rectangle is uniform, its interior is filled without executing the renderer, otherwise it is split in two.
+     */
+    private void dispatchSubdivided(DoubleArrayRenderer renderer, double[] canvas, double time) throws InterruptedException {
+        final int xRes = bitMap.getWidth();
+        final int yRes = bitMap.getHeight();
+        final int xTiles = (xRes - 1) / SUBDIVISION_TILE_SIZE + 1;
+        final int yTiles = (yRes - 1) / SUBDIVISION_TILE_SIZE + 1;
+        final boolean[] renderedPixels = new boolean[bitMap.getLength()];
+        final AtomicInteger nextTile = new AtomicInteger();
+        List<Thread> renderThreads = new ArrayList<>();
+
+        for (int n = 0; n < Runtime.getRuntime().availableProcessors(); n++) {
+            Thread t = new Thread(() -> {
+                try {
+                    int tile;
+                    while ((tile = nextTile.getAndIncrement()) < xTiles * yTiles) {
+                        int x0 = tile % xTiles * SUBDIVISION_TILE_SIZE;
+                        int y0 = tile / xTiles * SUBDIVISION_TILE_SIZE;
+                        int x1 = Math.min(x0 + SUBDIVISION_TILE_SIZE, xRes) - 1;
+                        int y1 = Math.min(y0 + SUBDIVISION_TILE_SIZE, yRes) - 1;
+                        subdivide(renderer, canvas, renderedPixels, time, x0, y0, x1, y1);
+                    }
+                } catch (IllegalRenderStateException ignored) {
+                    //noop
+                }
+            });
+            renderThreads.add(t);
+        }
+        renderThreads.forEach(Thread::start);
+
+        for (Thread renderThread : renderThreads) {
+            renderThread.join();
+        }
+    }
+
+    /**
+     * Renders the rectangle. all coordinates are inclusive.
+     */
+    private void subdivide(DoubleArrayRenderer renderer, double[] canvas, boolean[] renderedPixels, double time, int x0, int y0, int x1, int y1) throws IllegalRenderStateException {
+        renderState.tryBreak(renderID);
+
+        double first = renderPixel(renderer, canvas, renderedPixels, time, x0, y0);
+        boolean uniform = true;
+
+        for (int x = x0; x <= x1; x++) {
+            uniform &= sameValue(first, renderPixel(renderer, canvas, renderedPixels, time, x, y0));
+            uniform &= sameValue(first, renderPixel(renderer, canvas, renderedPixels, time, x, y1));
+        }
+        for (int y = y0 + 1; y < y1; y++) {
+            uniform &= sameValue(first, renderPixel(renderer, canvas, renderedPixels, time, x0, y));
+            uniform &= sameValue(first, renderPixel(renderer, canvas, renderedPixels, time, x1, y));
+        }
+
+        if (x1 - x0 < 2 || y1 - y0 < 2) {
+            return;
+        }
+
+        if (uniform) {
+            int xRes = bitMap.getWidth();
+            int filled = 0;
+            for (int y = y0 + 1; y < y1; y++) {
+                for (int x = x0 + 1; x < x1; x++) {
+                    int i = y * xRes + x;
+                    if (!renderedPixels[i]) {
+                        renderedPixels[i] = true;
+                        write(canvas, i, first);
+                        filled++;
+                    }
+                }
+            }
+            skippedAmount.getAndAdd(filled);
+            renderedAmount.getAndAdd(filled);
+            return;
+        }
+
+        if (x1 - x0 <= SUBDIVISION_MIN_SIZE || y1 - y0 <= SUBDIVISION_MIN_SIZE) {
+            for (int y = y0 + 1; y < y1; y++) {
+                for (int x = x0 + 1; x < x1; x++) {
+                    renderPixel(renderer, canvas, renderedPixels, time, x, y);
+                }
+            }
+            return;
+        }
+
+        if (x1 - x0 >= y1 - y0) {
+            int mx = (x0 + x1) / 2;
+            subdivide(renderer, canvas, renderedPixels, time, x0, y0, mx, y1);
+            subdivide(renderer, canvas, renderedPixels, time, mx, y0, x1, y1);
+        } else {
+            int my = (y0 + y1) / 2;
+            subdivide(renderer, canvas, renderedPixels, time, x0, y0, x1, my);
+            subdivide(renderer, canvas, renderedPixels, time, x0, my, x1, y1);
+        }
+    }
+
+    private double renderPixel(DoubleArrayRenderer renderer, double[] canvas, boolean[] renderedPixels, double time, int x, int y) throws IllegalRenderStateException {
+        final int xRes = bitMap.getWidth();
+        final int yRes = bitMap.getHeight();
+        int i = y * xRes + x;
+        if (!renderedPixels[i]) {
+            renderedPixels[i] = true;
+            double c = renderer.execute(x, y, xRes, yRes, (double) x / xRes, (double) y / yRes, i, source(i), time);
+            write(canvas, i, c);
+            renderedAmount.getAndIncrement();
+            return c;
+        }
+        return canvas[i];
+    }
+
+    private static boolean sameValue(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    /**
+     * Sets the render strategy to Mariani–Silver rectangle subdivision.
+     * The interior of a rectangle with a uniform border is filled without executing the renderer.
+     * Use it only with renderers whose result depends on the coordinates alone and whose level sets have no holes,
+     * such as {@link EscapeTimeRenderer}.
+     *
+     * @see #getSkippedAmount()
+     */
+    public void setSubdivision(boolean subdivision) {
+        this.subdivision = subdivision;
+    }
+
+    public boolean isSubdivision() {
+        return subdivision;
+    }
+
+    /**
+     * Sets whether tex2D is kept by a copy-on-write {@link DoubleTileSnapshot} instead of a full copy of the canvas for every renderer.
+     * Only the tiles changed by the renderer are copied, which is cheaper for the renderers changing a small part of the matrix.
+     */
+    public void setCopyOnWrite(boolean copyOnWrite) {
+        this.copyOnWrite = copyOnWrite;
+    }
+
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    /**
+     * Gets the number of pixels filled without executing the renderer in the subdivision mode.
+     */
+    public long getSkippedAmount() {
+        return skippedAmount.get();
+    }
+
     public double texture2D(int x, int y) {
-        return original.pipette(AdvancedMath.restrict(0, bitMap.getWidth() - 1, x), AdvancedMath.restrict(0, bitMap.getHeight() - 1, y));
+        x = AdvancedMath.restrict(0, bitMap.getWidth() - 1, x);
+        y = AdvancedMath.restrict(0, bitMap.getHeight() - 1, y);
+        return snapshot == null ? original.pipette(x, y) : snapshot.read(x, y);
     }
 
 
@@ -176,13 +380,71 @@ public class DoubleArrayDispatcher {
         tryBreak();
     }
 
+    /**
+     * Gets the copy of tex2D, the canvas before the current renderer.
+     * tex2D is kept on a pooled array returned to {@link CanvasPool#shared()} after the renderer, so it is never shared with the caller.
+     *
+     * @return the copy, or {@code null} if no renderer is running
+     */
     public DoubleMatrix getOriginalBitMap() {
-        return original;
+        DoubleTileSnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            return snapshot.toMatrix();
+        }
+        DoubleMatrix original = this.original;
+        return original == null ? null : original.cloneCanvas();
     }
 
     public DoubleMatrix getBitMap() {
         return bitMap;
     }
 
+    /**
+     * Renders the off-heap canvas band by band. every band is copied into a heap {@link DoubleMatrix}, dispatched, and copied back.
+     * The renderers receive the coordinates and the resolution of the whole canvas, and the index in the band.
+     *
+     * @param bandHeight  the number of the rows of a band
+     * @param subdivision whether to dispatch the bands with {@link #setSubdivision(boolean) the subdivision}
+     */
+    public static void dispatchBands(RenderState renderState, int renderID, OffHeapDoubleMatrix target, int bandHeight, boolean subdivision, DoubleArrayRenderer... renderers) throws IllegalRenderStateException, InterruptedException {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        bandHeight = Math.min(bandHeight, height);
+        if (bandHeight <= 0 || (long) width * bandHeight > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid band height : " + bandHeight);
+        }
+        double[] canvas = new double[width * bandHeight];
+
+        for (int y0 = 0; y0 < height; y0 += bandHeight) {
+            int rows = Math.min(bandHeight, height - y0);
+            if (rows != bandHeight) {
+                canvas = new double[width * rows];
+            }
+            target.readRows(y0, rows, canvas);
+            DoubleArrayDispatcher dispatcher = new DoubleArrayDispatcher(renderState, renderID, new DoubleMatrix(width, rows, canvas));
+            dispatcher.setSubdivision(subdivision);
+            for (DoubleArrayRenderer renderer : renderers) {
+                dispatcher.createRenderer(offset(renderer, y0, height));
+            }
+            dispatcher.dispatch();
+            renderState.tryBreak(renderID);
+            target.writeRows(y0, rows, canvas);
+        }
+    }
+
+    private static DoubleArrayRenderer offset(DoubleArrayRenderer renderer, int y0, int height) {
+        return new DoubleArrayRenderer() {
+            @Override
+            public double execute(int x, int y, int xRes, int yRes, double rx, double ry, int i, double c, double t) throws IllegalRenderStateException {
+                return renderer.execute(x, y + y0, xRes, height, rx, (double) (y + y0) / height, i, c, t);
+            }
+
+            @Override
+            public boolean isValid() {
+                return renderer.isValid();
+            }
+        };
+    }
+
 
 }
@@ -0,0 +1,285 @@
+package kr.merutilm.base.parallel;
+
+import kr.merutilm.base.struct.Complex;
+import kr.merutilm.base.struct.DoubleDoubleComplex;
+
+/**
+ * Escape-time renderer of the Mandelbrot set and the Julia sets.
+ * <p>
+ * The iteration runs on primitive doubles, so no {@link Complex} is allocated inside the loop.
+ * Register it with {@link DoubleArrayDispatcher#createRenderer(DoubleArrayRenderer)} to render on the dispatcher's threads.
+ * Each pixel receives the smooth iteration count, or {@link #getMaxIteration()} when the point does not escape.
+ * <p>
+ * When the center is given as a {@link DoubleDoubleComplex}, the orbit is iterated in double-double precision
+ * with a per-pixel {@link DoubleDoubleComplex.Builder}, which keeps zooms beyond about 1e-13 from turning into blocks.
+ */
+public final class EscapeTimeRenderer implements DoubleArrayRenderer {
+
+    private static final double LOG2 = Math.log(2);
+    /**
+     * Brent's periodicity check starts with this period, and doubles it on every miss.
+     */
+    static final int PERIODICITY_INITIAL_PERIOD = 8;
+
+    private final double centerRe;
+    private final double centerIm;
+    private final DoubleDoubleComplex deepCenter;
+    private final double scale;
+    private final boolean julia;
+    private final double juliaRe;
+    private final double juliaIm;
+    private final int maxIteration;
+    private final double bailout2;
+    private final double logBailout;
+    private final boolean periodicityCheck;
+
+    /**
+     * @param center           the complex coordinate of the canvas center
+     * @param scale            the height of the canvas in the complex plane
+     * @param julia            the parameter of the Julia set, or {@code null} to render the Mandelbrot set
+     * @param maxIteration     the maximum iteration
+     * @param bailout          the escape radius. must be greater than 2
+     * @param periodicityCheck whether to stop iterating when the orbit becomes periodic
+     */
+    public EscapeTimeRenderer(Complex center, double scale, Complex julia, int maxIteration, double bailout, boolean periodicityCheck) {
+        this(center, null, scale, julia, maxIteration, bailout, periodicityCheck);
+    }
+
+    /**
+     * Creates the renderer iterating in double-double precision.
+     *
+     * @see #EscapeTimeRenderer(Complex, double, Complex, int, double, boolean)
+     */
+    public EscapeTimeRenderer(DoubleDoubleComplex center, double scale, Complex julia, int maxIteration, double bailout, boolean periodicityCheck) {
+        this(center.toComplex(), center, scale, julia, maxIteration, bailout, periodicityCheck);
+    }
+
+    private EscapeTimeRenderer(Complex center, DoubleDoubleComplex deepCenter, double scale, Complex julia, int maxIteration, double bailout, boolean periodicityCheck) {
+        if (maxIteration <= 0) {
+            throw new IllegalArgumentException("max iteration must be positive : " + maxIteration);
+        }
+        if (bailout <= 2) {
+            throw new IllegalArgumentException("bailout must be greater than 2 : " + bailout);
+        }
+        this.centerRe = center.re();
+        this.centerIm = center.im();
+        this.deepCenter = deepCenter;
+        this.scale = scale;
+        this.julia = julia != null;
+        this.juliaRe = julia == null ? 0 : julia.re();
+        this.juliaIm = julia == null ? 0 : julia.im();
+        this.maxIteration = maxIteration;
+        this.bailout2 = bailout * bailout;
+        this.logBailout = Math.log(bailout);
+        this.periodicityCheck = periodicityCheck;
+    }
+
+    public static EscapeTimeRenderer mandelbrot(Complex center, double scale, int maxIteration, double bailout) {
+        return new EscapeTimeRenderer(center, scale, null, maxIteration, bailout, true);
+    }
+
+    public static EscapeTimeRenderer julia(Complex c, Complex center, double scale, int maxIteration, double bailout) {
+        return new EscapeTimeRenderer(center, scale, c, maxIteration, bailout, true);
+    }
+
+    public static EscapeTimeRenderer mandelbrot(DoubleDoubleComplex center, double scale, int maxIteration, double bailout) {
+        return new EscapeTimeRenderer(center, scale, null, maxIteration, bailout, true);
+    }
+
+    public static EscapeTimeRenderer julia(Complex c, DoubleDoubleComplex center, double scale, int maxIteration, double bailout) {
+        return new EscapeTimeRenderer(center, scale, c, maxIteration, bailout, true);
+    }
+
+    @Override
+    public double execute(int x, int y, int xRes, int yRes, double rx, double ry, int i, double c, double t) {
+        double pixelSize = scale / yRes;
+        if (deepCenter != null) {
+            return iterateDeep((x - xRes / 2.0) * pixelSize, -(y - yRes / 2.0) * pixelSize, pixelSize);
+        }
+        return iterate(re(x, xRes, pixelSize), im(y, yRes, pixelSize), pixelSize);
+    }
+
+    /**
+     * Converts the pixel x-coordinate to the real part of the complex plane.
+     */
+    public double re(int x, int xRes, int yRes) {
+        return re(x, xRes, scale / yRes);
+    }
+
+    /**
+     * Converts the pixel y-coordinate to the imaginary part of the complex plane.
+     */
+    public double im(int y, int yRes) {
+        return im(y, yRes, scale / yRes);
+    }
+
+    private double re(int x, int xRes, double pixelSize) {
+        return centerRe + (x - xRes / 2.0) * pixelSize;
+    }
+
+    private double im(int y, int yRes, double pixelSize) {
+        return centerIm - (y - yRes / 2.0) * pixelSize;
+    }
+
+    /**
+     * Iterates the point of the complex plane.
+     *
+     * @param re        the real part
+     * @param im        the imaginary part
+     * @param pixelSize the size of one pixel in the complex plane. the periodicity check uses it as a tolerance
+     * @return the smooth iteration count, or {@link #getMaxIteration()} when the point is bounded
+     */
+    public double iterate(double re, double im, double pixelSize) {
+        double cr;
+        double ci;
+        double zr;
+        double zi;
+
+        if (julia) {
+            cr = juliaRe;
+            ci = juliaIm;
+            zr = re;
+            zi = im;
+        } else {
+            if (isInMainBulbs(re, im)) {
+                return maxIteration;
+            }
+            cr = re;
+            ci = im;
+            zr = 0;
+            zi = 0;
+        }
+
+        double zr2 = zr * zr;
+        double zi2 = zi * zi;
+
+        double epsilon = Math.min(1e-10, pixelSize * 1e-3);
+        double checkRe = zr;
+        double checkIm = zi;
+        int checkPeriod = PERIODICITY_INITIAL_PERIOD;
+        int period = 0;
+
+        for (int n = 0; n < maxIteration; n++) {
+            zi = 2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+
+            double r2 = zr2 + zi2;
+            if (r2 > bailout2) {
+                return smooth(n, r2);
+            }
+
+            if (periodicityCheck) {
+                if (Math.abs(zr - checkRe) < epsilon && Math.abs(zi - checkIm) < epsilon) {
+                    return maxIteration;
+                }
+                if (++period == checkPeriod) {
+                    period = 0;
+                    checkPeriod <<= 1;
+                    checkRe = zr;
+                    checkIm = zi;
+                }
+            }
+        }
+        return maxIteration;
+    }
+
+    /**
+     * Iterates the point at the offset from the double-double center.
+     *
+     * @see #iterate(double, double, double)
+     */
+    public double iterateDeep(double offsetRe, double offsetIm, double pixelSize) {
+        if (deepCenter == null) {
+            return iterate(centerRe + offsetRe, centerIm + offsetIm, pixelSize);
+        }
+        DoubleDoubleComplex.Builder point = deepCenter.edit().add(offsetRe, offsetIm);
+        DoubleDoubleComplex.Builder z;
+        DoubleDoubleComplex.Builder c;
+
+        if (julia) {
+            z = point;
+            c = new DoubleDoubleComplex.Builder().set(juliaRe, juliaIm);
+        } else {
+            if (isInMainBulbs(point.reHi(), point.imHi())) {
+                return maxIteration;
+            }
+            z = new DoubleDoubleComplex.Builder();
+            c = point;
+        }
+
+        double epsilon = Math.min(1e-10, pixelSize * 1e-3);
+        DoubleDoubleComplex.Builder check = new DoubleDoubleComplex.Builder().set(z);
+        DoubleDoubleComplex.Builder difference = new DoubleDoubleComplex.Builder();
+        int checkPeriod = PERIODICITY_INITIAL_PERIOD;
+        int period = 0;
+
+        for (int n = 0; n < maxIteration; n++) {
+            z.square().add(c);
+
+            double r2 = z.radius2();
+            if (r2 > bailout2) {
+                return smooth(n, r2);
+            }
+
+            if (periodicityCheck) {
+                difference.set(z).subtract(check);
+                if (Math.abs(difference.reHi()) < epsilon && Math.abs(difference.imHi()) < epsilon) {
+                    return maxIteration;
+                }
+                if (++period == checkPeriod) {
+                    period = 0;
+                    checkPeriod <<= 1;
+                    check.set(z);
+                }
+            }
+        }
+        return maxIteration;
+    }
+
+    /**
+     * Returns the continuous iteration count of the escaped orbit.
+     *
+     * @param n  the iteration where the orbit escaped
+     * @param r2 the squared radius after the escape
+     */
+    private double smooth(int n, double r2) {
+        return smooth(n, r2, maxIteration, logBailout);
+    }
+
+    static double smooth(int n, double r2, int maxIteration, double logBailout) {
+        double logZ = Math.log(r2) / 2;
+        return Math.min(maxIteration, Math.max(0, n + 1 - Math.log(logZ / logBailout) / LOG2));
+    }
+
+    /**
+     * Tests whether the point lies in the main cardioid or the period-2 bulb of the Mandelbrot set.
+     */
+    public static boolean isInMainBulbs(double re, double im) {
+        double im2 = im * im;
+        double qr = re - 0.25;
+        double q = qr * qr + im2;
+        if (q * (q + qr) <= im2 * 0.25) {
+            return true;
+        }
+        double br = re + 1;
+        return br * br + im2 <= 0.0625;
+    }
+
+    public int getMaxIteration() {
+        return maxIteration;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public Complex getCenter() {
+        return new Complex(centerRe, centerIm);
+    }
+
+    public boolean isJulia() {
+        return julia;
+    }
+}
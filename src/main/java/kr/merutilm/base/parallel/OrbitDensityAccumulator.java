@@ -0,0 +1,263 @@
+package kr.merutilm.base.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.merutilm.base.exception.IllegalRenderStateException;
+import kr.merutilm.base.struct.Complex;
+import kr.merutilm.base.struct.DoubleMatrix;
+
+/**
+ * Orbit density (Buddhabrot) accumulator of the Mandelbrot set.
+ * <p>
+ * Every thread samples random points and adds the orbits of the escaping ones to its own histogram, without any synchronization.
+ * The thread-local histograms are merged into the shared counts periodically.
+ * The shared counts are split into row stripes with their own locks, so the threads rarely wait for each other while merging.
+ * {@link #accumulate(RenderState, int, long)} can be called repeatedly to refine the result progressively.
+ */
+public final class OrbitDensityAccumulator {
+
+    /**
+     * The number of rows of the shared counts guarded by one lock.
+     */
+    private static final int STRIPE_ROWS = 16;
+    /**
+     * The radius of the sampling disk. every point outside of it escapes immediately.
+     */
+    private static final double SAMPLING_RADIUS = 2;
+
+    private final int width;
+    private final int height;
+    private final double centerRe;
+    private final double centerIm;
+    private final double pixelSize;
+    private final int minIteration;
+    private final int maxIteration;
+    private final int mergeInterval;
+
+    private final long[] counts;
+    private final Object[] stripeLocks;
+    private final SplittableRandom seed;
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong points = new AtomicLong();
+
+    /**
+     * @param width         the width of the density canvas
+     * @param height        the height of the density canvas
+     * @param center        the complex coordinate of the canvas center
+     * @param scale         the height of the canvas in the complex plane
+     * @param minIteration  orbits escaping before this iteration are discarded
+     * @param maxIteration  the maximum iteration. the orbits not escaping until this iteration are discarded
+     * @param mergeInterval the number of samples of one thread between the merges of its histogram
+     */
+    public OrbitDensityAccumulator(int width, int height, Complex center, double scale, int minIteration, int maxIteration, int mergeInterval) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Length : " + width + "x" + height);
+        }
+        if (minIteration < 0 || maxIteration <= minIteration) {
+            throw new IllegalArgumentException("invalid iteration range : " + minIteration + "~" + maxIteration);
+        }
+        if (mergeInterval <= 0) {
+            throw new IllegalArgumentException("merge interval must be positive : " + mergeInterval);
+        }
+        this.width = width;
+        this.height = height;
+        this.centerRe = center.re();
+        this.centerIm = center.im();
+        this.pixelSize = scale / height;
+        this.minIteration = minIteration;
+        this.maxIteration = maxIteration;
+        this.mergeInterval = mergeInterval;
+        this.counts = new long[width * height];
+        this.stripeLocks = new Object[(height - 1) / STRIPE_ROWS + 1];
+        for (int i = 0; i < stripeLocks.length; i++) {
+            stripeLocks[i] = new Object();
+        }
+        this.seed = new SplittableRandom();
+    }
+
+    /**
+     * Samples the points on all processors, and adds their orbits to the counts.
+     *
+     * @param samples the number of sampled points
+     */
+    public void accumulate(RenderState state, int renderID, long samples) throws IllegalRenderStateException, InterruptedException {
+        state.tryBreak(renderID);
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Thread> accumulateThreads = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            long threadSamples = samples / threads + (t < samples % threads ? 1 : 0);
+            SplittableRandom random;
+            synchronized (seed) {
+                random = seed.split();
+            }
+            accumulateThreads.add(new Thread(() -> {
+                try {
+                    sample(state, renderID, threadSamples, random);
+                } catch (IllegalRenderStateException ignored) {
+                    //noop
+                }
+            }));
+        }
+        accumulateThreads.forEach(Thread::start);
+
+        for (Thread accumulateThread : accumulateThreads) {
+            accumulateThread.join();
+        }
+        state.tryBreak(renderID);
+    }
+
+    private void sample(RenderState state, int renderID, long threadSamples, SplittableRandom random) throws IllegalRenderStateException {
+        int[] histogram = new int[counts.length];
+        double[] orbitRe = new double[maxIteration];
+        double[] orbitIm = new double[maxIteration];
+        long localPoints = 0;
+        int pending = 0;
+
+        try {
+            for (long s = 0; s < threadSamples; s++) {
+                double cr = random.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+                double ci = random.nextDouble(-SAMPLING_RADIUS, SAMPLING_RADIUS);
+                if (!EscapeTimeRenderer.isInMainBulbs(cr, ci)) {
+                    localPoints += trace(cr, ci, orbitRe, orbitIm, histogram);
+                }
+
+                if (++pending == mergeInterval) {
+                    state.tryBreak(renderID);
+                    merge(histogram);
+                    samples.getAndAdd(pending);
+                    points.getAndAdd(localPoints);
+                    pending = 0;
+                    localPoints = 0;
+                }
+            }
+        } finally {
+            merge(histogram);
+            samples.getAndAdd(pending);
+            points.getAndAdd(localPoints);
+        }
+    }
+
+    /**
+     * Iterates the point, and adds its orbit to the histogram if it escapes in the iteration range.
+     *
+     * @return the number of added orbit points
+     */
+    private int trace(double cr, double ci, double[] orbitRe, double[] orbitIm, int[] histogram) {
+        double zr = 0;
+        double zi = 0;
+        double zr2 = 0;
+        double zi2 = 0;
+        int n = 0;
+        boolean escaped = false;
+
+        while (n < maxIteration) {
+            zi = 2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            orbitRe[n] = zr;
+            orbitIm[n] = zi;
+            n++;
+            if (zr2 + zi2 > SAMPLING_RADIUS * SAMPLING_RADIUS) {
+                escaped = true;
+                break;
+            }
+        }
+
+        if (!escaped || n < minIteration) {
+            return 0;
+        }
+
+        int added = 0;
+        double left = centerRe - width / 2.0 * pixelSize;
+        double top = centerIm + height / 2.0 * pixelSize;
+        for (int k = 0; k < n; k++) {
+            int x = (int) Math.floor((orbitRe[k] - left) / pixelSize);
+            int y = (int) Math.floor((top - orbitIm[k]) / pixelSize);
+            if (x >= 0 && x < width && y >= 0 && y < height) {
+                histogram[y * width + x]++;
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Adds the thread-local histogram to the shared counts stripe by stripe, and clears it.
+     */
+    private void merge(int[] histogram) {
+        int offset = (int) (Thread.currentThread().getId() % stripeLocks.length);
+        for (int s = 0; s < stripeLocks.length; s++) {
+            int stripe = (s + offset) % stripeLocks.length;
+            int start = stripe * STRIPE_ROWS * width;
+            int end = Math.min(start + STRIPE_ROWS * width, counts.length);
+            synchronized (stripeLocks[stripe]) {
+                for (int i = start; i < end; i++) {
+                    counts[i] += histogram[i];
+                    histogram[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the merged counts of the orbit points per pixel.
+     */
+    public DoubleMatrix getDensity() {
+        double[] result = new double[counts.length];
+        for (int stripe = 0; stripe < stripeLocks.length; stripe++) {
+            int start = stripe * STRIPE_ROWS * width;
+            int end = Math.min(start + STRIPE_ROWS * width, counts.length);
+            synchronized (stripeLocks[stripe]) {
+                for (int i = start; i < end; i++) {
+                    result[i] = counts[i];
+                }
+            }
+        }
+        return new DoubleMatrix(width, height, result);
+    }
+
+    /**
+     * Gets the merged counts scaled into 0~1 by the maximum count.
+     */
+    public DoubleMatrix getNormalizedDensity() {
+        DoubleMatrix density = getDensity();
+        double[] canvas = density.getCanvas();
+        double max = 0;
+        for (double v : canvas) {
+            max = Math.max(max, v);
+        }
+        if (max > 0) {
+            for (int i = 0; i < canvas.length; i++) {
+                canvas[i] /= max;
+            }
+        }
+        return density;
+    }
+
+    /**
+     * Gets the number of merged samples.
+     */
+    public long getSampleCount() {
+        return samples.get();
+    }
+
+    /**
+     * Gets the number of merged orbit points inside the canvas.
+     */
+    public long getPointCount() {
+        return points.get();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,139 @@
+package kr.merutilm.base.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits an index range into contiguous parts, and runs them on one thread per processor.
+ * Used by the image engines to run a pass in parallel by rows or columns.
+ */
+public final class ParallelRange {
+    private ParallelRange() {
+
+    }
+
+    @FunctionalInterface
+    public interface RangeTask {
+        /**
+         * Runs the part of the range.
+         *
+         * @param start the first index, inclusive
+         * @param end   the last index, exclusive
+         */
+        void run(int start, int end);
+    }
+
+    /**
+     * Runs the task over {@code [0, length)} on one thread per processor.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static void run(int length, RangeTask task) throws InterruptedException {
+        run(length, Runtime.getRuntime().availableProcessors(), task);
+    }
+
+    /**
+     * Runs the task over {@code [0, length)} split into the given number of parts.
+     * A {@link RuntimeException} or an {@link Error} thrown by any part is rethrown after every part finishes.
+     * <p>
+     * When the current thread is interrupted while waiting, the parts are interrupted and joined before throwing,
+     * so no part touches the data of the caller afterwards. A long part may poll {@link Thread#isInterrupted()} to stop early.
+     *
+     * @throws InterruptedException When the current thread is interrupted while waiting
+     */
+    public static void run(int length, int parts, RangeTask task) throws InterruptedException {
+        Parts running = start(length, parts, task);
+        try {
+            for (Thread thread : running.threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            running.threads.forEach(Thread::interrupt);
+            joinAll(running.threads);
+            throw e;
+        }
+        running.check();
+    }
+
+    /**
+     * Runs the task over {@code [0, length)} on one thread per processor, always waiting until every part finishes.
+     * The interrupt status of the current thread is kept, and restored after the wait.
+     */
+    public static void runUninterruptibly(int length, RangeTask task) {
+        Parts running = start(length, Runtime.getRuntime().availableProcessors(), task);
+        if (joinAll(running.threads)) {
+            Thread.currentThread().interrupt();
+        }
+        running.check();
+    }
+
+    /**
+     * Waits until every thread finishes, ignoring the interrupts.
+     *
+     * @return whether the current thread was interrupted while waiting
+     */
+    private static boolean joinAll(List<Thread> threads) {
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        return interrupted;
+    }
+
+    private record Parts(List<Thread> threads, AtomicReference<Throwable> failure) {
+        void check() {
+            Throwable e = failure.get();
+            if (e instanceof RuntimeException r) {
+                throw r;
+            }
+            if (e instanceof Error r) {
+                throw r;
+            }
+            if (e != null) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Starts the parts, running the whole range on the current thread when there is only one part.
+     */
+    private static Parts start(int length, int parts, RangeTask task) {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        parts = Math.min(parts, length);
+        if (parts <= 1) {
+            if (length > 0) {
+                task.run(0, length);
+            }
+            return new Parts(threads, failure);
+        }
+
+        int step = length / parts;
+        int remainder = length % parts;
+        int start = 0;
+
+        for (int p = 0; p < parts; p++) {
+            int s = start;
+            int e = s + step + (p < remainder ? 1 : 0);
+            start = e;
+            threads.add(new Thread(() -> {
+                try {
+                    task.run(s, e);
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        return new Parts(threads, failure);
+    }
+}
@@ -0,0 +1,362 @@
+package kr.merutilm.base.parallel;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import kr.merutilm.base.exception.IllegalRenderStateException;
+import kr.merutilm.base.struct.DoubleMatrix;
+
+/**
+ * Deep zoom renderer of the Mandelbrot set using perturbation theory.
+ * <p>
+ * One reference orbit is iterated in {@link BigDecimal}, and every pixel iterates only its double-precision delta from it,
+ * {@code δ(n+1) = 2Z(n)δ(n) + δ(n)² + δc}.
+ * Pixels whose delta loses its precision are detected as glitches and re-rendered against a new reference placed inside them.
+ * <p>
+ * The reference orbits are cached, so the following frames of a zoom animation reuse them while the reference stays in the view,
+ * and only recompute the deltas.
+ * The output is the smooth iteration count, the same as {@link EscapeTimeRenderer}.
+ */
+public final class PerturbationRenderer {
+
+    /**
+     * Pauldelbrot's glitch criterion. the pixel glitches when {@code |Z + δ|² < |Z|² * this value}.
+     */
+    private static final double GLITCH_TOLERANCE = 1e-6;
+    /**
+     * The periodicity check is skipped when its epsilon is within this many ulps of the checked point,
+     * as the rounded {@code Z + δ} cannot resolve the δ of the neighboring pixels there.
+     */
+    private static final double PERIODICITY_ULPS = 16;
+    /**
+     * Additional decimal digits of the reference orbit, beyond the digits of the coordinate.
+     */
+    private static final int GUARD_DIGITS = 20;
+    private static final int MAX_CACHED_ORBITS = 16;
+
+    private final int maxIteration;
+    private final double bailout2;
+    private final double logBailout;
+    private final int maxReferences;
+    private final List<ReferenceOrbit> cache = new ArrayList<>();
+
+    /**
+     * @param maxIteration  the maximum iteration
+     * @param bailout       the escape radius. must be greater than 2
+     * @param maxReferences the maximum number of references of one frame, including the first one
+     */
+    public PerturbationRenderer(int maxIteration, double bailout, int maxReferences) {
+        if (maxIteration <= 0) {
+            throw new IllegalArgumentException("max iteration must be positive : " + maxIteration);
+        }
+        if (bailout <= 2) {
+            throw new IllegalArgumentException("bailout must be greater than 2 : " + bailout);
+        }
+        if (maxReferences <= 0) {
+            throw new IllegalArgumentException("max references must be positive : " + maxReferences);
+        }
+        this.maxIteration = maxIteration;
+        this.bailout2 = bailout * bailout;
+        this.logBailout = Math.log(bailout);
+        this.maxReferences = maxReferences;
+    }
+
+    /**
+     * The reference orbit, rounded to double.
+     *
+     * @param re        the real part of the reference point
+     * @param im        the imaginary part of the reference point
+     * @param precision the decimal digits used to iterate
+     * @param orbitRe   the real parts of Z(0) ... Z(length)
+     * @param orbitIm   the imaginary parts of Z(0) ... Z(length)
+     * @param length    the iteration count of the reference. smaller than maxIteration when it escaped
+     * @param escaped   whether the reference escaped
+     */
+    public record ReferenceOrbit(BigDecimal re, BigDecimal im, int precision, double[] orbitRe, double[] orbitIm, int length, boolean escaped) {
+
+        /**
+         * Tests whether the orbit can serve the frame.
+         */
+        boolean isUsable(int maxIteration, int precision) {
+            return this.precision >= precision && (escaped || length >= maxIteration);
+        }
+    }
+
+    /**
+     * The statistics of one rendered frame.
+     *
+     * @param references        the number of references used
+     * @param computedOrbits    the number of reference orbits computed for this frame. 0 when every orbit came from the cache
+     * @param remainingGlitches the number of glitched pixels left after the last reference
+     */
+    public record Result(int references, int computedOrbits, int remainingGlitches) {
+    }
+
+    /**
+     * Renders the frame into the target.
+     * The canvas center is ({@code centerRe}, {@code centerIm}), and the canvas height in the complex plane is {@code scale}.
+     * Remaining glitched pixels are left as {@link Double#NaN}.
+     */
+    public Result render(RenderState state, int renderID, DoubleMatrix target, BigDecimal centerRe, BigDecimal centerIm, double scale) throws IllegalRenderStateException, InterruptedException {
+        int precision = requiredPrecision(centerRe, centerIm, scale);
+        int xRes = target.getWidth();
+        int yRes = target.getHeight();
+        double pixelSize = scale / yRes;
+        double halfWidth = pixelSize * xRes / 2;
+        double halfHeight = scale / 2;
+
+        int computedOrbits = 0;
+        ReferenceOrbit reference = findCached(centerRe, centerIm, halfWidth, halfHeight, precision);
+        if (reference == null) {
+            reference = computeOrbit(centerRe, centerIm, precision);
+            computedOrbits++;
+        }
+
+        int length = target.getLength();
+        boolean[] glitched = new boolean[length];
+        double[] glitchRatio = new double[length];
+        int glitches = length;
+        int references = 0;
+        List<ReferenceOrbit> tried = new ArrayList<>();
+
+        while (reference != null && references < maxReferences) {
+            references++;
+            tried.add(reference);
+            glitches = renderPass(state, renderID, target, reference, centerRe, centerIm, pixelSize, glitched, glitchRatio, references == 1);
+            if (glitches == 0) {
+                break;
+            }
+
+            reference = findCachedInGlitch(tried, target, centerRe, centerIm, pixelSize, glitched, precision);
+            if (reference == null) {
+                int i = worstGlitch(glitched, glitchRatio);
+                BigDecimal re = centerRe.add(new BigDecimal((i % xRes - xRes / 2.0) * pixelSize));
+                BigDecimal im = centerIm.add(new BigDecimal(-(i / xRes - yRes / 2.0) * pixelSize));
+                reference = computeOrbit(re, im, precision);
+                computedOrbits++;
+            }
+        }
+        return new Result(references, computedOrbits, glitches);
+    }
+
+    /**
+     * Renders the pixels with the reference. on the first pass, every pixel is rendered, otherwise only the glitched ones.
+     *
+     * @return the number of glitched pixels after this pass
+     */
+    private int renderPass(RenderState state, int renderID, DoubleMatrix target, ReferenceOrbit reference, BigDecimal centerRe, BigDecimal centerIm,
+                           double pixelSize, boolean[] glitched, double[] glitchRatio, boolean first) throws IllegalRenderStateException, InterruptedException {
+        double offsetRe = centerRe.subtract(reference.re()).doubleValue();
+        double offsetIm = centerIm.subtract(reference.im()).doubleValue();
+        boolean bulbCheck = pixelSize > 1e-12;
+
+        DoubleArrayDispatcher dispatcher = new DoubleArrayDispatcher(state, renderID, target);
+        dispatcher.createRenderer((x, y, xRes, yRes, rx, ry, i, c, t) -> {
+            if (!first && !glitched[i]) {
+                return c;
+            }
+            double dcr = offsetRe + (x - xRes / 2.0) * pixelSize;
+            double dci = offsetIm - (y - yRes / 2.0) * pixelSize;
+            if (bulbCheck && EscapeTimeRenderer.isInMainBulbs(reference.orbitRe()[1] + dcr, reference.orbitIm()[1] + dci)) {
+                glitched[i] = false;
+                return maxIteration;
+            }
+            return iterate(reference, dcr, dci, pixelSize, glitched, glitchRatio, i);
+        });
+        dispatcher.dispatch();
+
+        int glitches = 0;
+        for (boolean g : glitched) {
+            if (g) {
+                glitches++;
+            }
+        }
+        return glitches;
+    }
+
+    private double iterate(ReferenceOrbit reference, double dcr, double dci, double pixelSize, boolean[] glitched, double[] glitchRatio, int i) {
+        double[] orbitRe = reference.orbitRe();
+        double[] orbitIm = reference.orbitIm();
+        int orbitLength = reference.length();
+
+        double dr = 0;
+        double di = 0;
+        double epsilon = Math.min(1e-10, pixelSize * 1e-3);
+        double checkRe = 0;
+        double checkIm = 0;
+        boolean checkUsable = true;
+        int checkPeriod = EscapeTimeRenderer.PERIODICITY_INITIAL_PERIOD;
+        int period = 0;
+
+        for (int n = 0; n < maxIteration; n++) {
+            if (n >= orbitLength) {
+                // the reference escaped before this pixel
+                return markGlitch(glitched, glitchRatio, i, Double.MAX_VALUE);
+            }
+            double zr = orbitRe[n];
+            double zi = orbitIm[n];
+            double ndr = 2 * (zr * dr - zi * di) + dr * dr - di * di + dcr;
+            double ndi = 2 * (zr * di + zi * dr + dr * di) + dci;
+            dr = ndr;
+            di = ndi;
+
+            double rr = orbitRe[n + 1];
+            double ri = orbitIm[n + 1];
+            double pr = rr + dr;
+            double pi = ri + di;
+            double r2 = pr * pr + pi * pi;
+
+            if (r2 > bailout2) {
+                glitched[i] = false;
+                return EscapeTimeRenderer.smooth(n, r2, maxIteration, logBailout);
+            }
+            double ref2 = rr * rr + ri * ri;
+            if (r2 < ref2 * GLITCH_TOLERANCE) {
+                return markGlitch(glitched, glitchRatio, i, r2 / ref2);
+            }
+
+            if (checkUsable && Math.abs(pr - checkRe) < epsilon && Math.abs(pi - checkIm) < epsilon) {
+                break;
+            }
+            if (++period == checkPeriod) {
+                period = 0;
+                checkPeriod <<= 1;
+                checkRe = pr;
+                checkIm = pi;
+                // Z + δ rounded to double loses δ below the ulp of Z, so a smaller epsilon would compare the reference only
+                checkUsable = epsilon > PERIODICITY_ULPS * Math.ulp(Math.abs(pr) + Math.abs(pi));
+            }
+        }
+        glitched[i] = false;
+        return maxIteration;
+    }
+
+    private static double markGlitch(boolean[] glitched, double[] glitchRatio, int i, double ratio) {
+        glitched[i] = true;
+        glitchRatio[i] = ratio;
+        return Double.NaN;
+    }
+
+    /**
+     * Finds the glitched pixel nearest to the center of its glitch, where the delta collapsed the most.
+     */
+    private static int worstGlitch(boolean[] glitched, double[] glitchRatio) {
+        int worst = -1;
+        for (int i = 0; i < glitched.length; i++) {
+            if (glitched[i] && (worst == -1 || glitchRatio[i] < glitchRatio[worst])) {
+                worst = i;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Finds the cached orbit usable as the primary reference of the frame.
+     */
+    private synchronized ReferenceOrbit findCached(BigDecimal centerRe, BigDecimal centerIm, double halfWidth, double halfHeight, int precision) {
+        for (ReferenceOrbit orbit : cache) {
+            if (!orbit.isUsable(maxIteration, precision)) {
+                continue;
+            }
+            double dr = orbit.re().subtract(centerRe).doubleValue();
+            double di = orbit.im().subtract(centerIm).doubleValue();
+            if (Math.abs(dr) <= halfWidth && Math.abs(di) <= halfHeight) {
+                touch(orbit);
+                return orbit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the cached orbit not tried yet whose reference lies on a glitched pixel.
+     */
+    private synchronized ReferenceOrbit findCachedInGlitch(List<ReferenceOrbit> tried, DoubleMatrix target, BigDecimal centerRe, BigDecimal centerIm,
+                                                           double pixelSize, boolean[] glitched, int precision) {
+        int xRes = target.getWidth();
+        int yRes = target.getHeight();
+        for (ReferenceOrbit orbit : cache) {
+            if (tried.contains(orbit) || !orbit.isUsable(maxIteration, precision)) {
+                continue;
+            }
+            double x = orbit.re().subtract(centerRe).doubleValue() / pixelSize + xRes / 2.0;
+            double y = -orbit.im().subtract(centerIm).doubleValue() / pixelSize + yRes / 2.0;
+            int px = (int) Math.round(x);
+            int py = (int) Math.round(y);
+            if (px >= 0 && px < xRes && py >= 0 && py < yRes && glitched[py * xRes + px]) {
+                touch(orbit);
+                return orbit;
+            }
+        }
+        return null;
+    }
+
+    private void touch(ReferenceOrbit orbit) {
+        cache.remove(orbit);
+        cache.add(0, orbit);
+    }
+
+    /**
+     * Iterates the reference orbit in {@link BigDecimal}, and stores it in the cache.
+     */
+    public ReferenceOrbit computeOrbit(BigDecimal re, BigDecimal im, int precision) {
+        MathContext mc = new MathContext(precision);
+        double[] orbitRe = new double[maxIteration + 1];
+        double[] orbitIm = new double[maxIteration + 1];
+        BigDecimal bailout = BigDecimal.valueOf(bailout2);
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        int length = maxIteration;
+        boolean escaped = false;
+
+        for (int n = 0; n < maxIteration; n++) {
+            BigDecimal zr2 = zr.multiply(zr, mc);
+            BigDecimal zi2 = zi.multiply(zi, mc);
+            if (zr2.add(zi2, mc).compareTo(bailout) > 0) {
+                length = n;
+                escaped = true;
+                break;
+            }
+            BigDecimal nzi = zr.multiply(zi, mc).multiply(BigDecimal.valueOf(2)).add(im, mc);
+            zr = zr2.subtract(zi2, mc).add(re, mc);
+            zi = nzi;
+            orbitRe[n + 1] = zr.doubleValue();
+            orbitIm[n + 1] = zi.doubleValue();
+        }
+
+        ReferenceOrbit orbit = new ReferenceOrbit(re, im, precision, orbitRe, orbitIm, length, escaped);
+        synchronized (this) {
+            cache.add(0, orbit);
+            if (cache.size() > MAX_CACHED_ORBITS) {
+                cache.remove(cache.size() - 1);
+            }
+        }
+        return orbit;
+    }
+
+    /**
+     * Gets the decimal digits needed for the reference orbit of the frame.
+     * The digits of the coordinates are included, so the orbit of the final keyframe also serves every shallower frame.
+     */
+    public static int requiredPrecision(BigDecimal re, BigDecimal im, double scale) {
+        int zoomDigits = (int) Math.ceil(-Math.log10(scale));
+        return Math.max(Math.max(zoomDigits, 0), Math.max(re.scale(), im.scale())) + GUARD_DIGITS;
+    }
+
+    /**
+     * Removes every cached reference orbit.
+     */
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    public synchronized List<ReferenceOrbit> getCachedOrbits() {
+        return List.copyOf(cache);
+    }
+
+    public int getMaxIteration() {
+        return maxIteration;
+    }
+}
@@ -9,8 +9,11 @@ import kr.merutilm.base.exception.IllegalRenderStateException;
 import kr.merutilm.base.io.BitMap;
 import kr.merutilm.base.io.BitMapImage;
 import kr.merutilm.base.struct.HexColor;
+import kr.merutilm.base.struct.IntTileSnapshot;
+import kr.merutilm.base.struct.OffHeapIntMatrix;
 import kr.merutilm.base.struct.Point2D;
 import kr.merutilm.base.util.AdvancedMath;
+import kr.merutilm.base.util.CanvasPool;
 import kr.merutilm.base.util.TaskManager;
 
 
@@ -19,6 +22,8 @@ public class ShaderDispatcher {
     private final int renderID;
     private final BitMap bitMap;
     private BitMap original;
+    private IntTileSnapshot snapshot;
+    private boolean copyOnWrite = false;
     protected final double initTime;
     private boolean rendered = false;
     private final AtomicInteger renderedAmount = new AtomicInteger();
@@ -42,6 +47,18 @@ public class ShaderDispatcher {
         tryBreak();
     }
 
+    /**
+     * Sets whether tex2D is kept by a copy-on-write {@link IntTileSnapshot} instead of a full copy of the canvas for every shader.
+     * Only the tiles changed by the shader are copied, which is cheaper for the shaders changing a small part of the image.
+     */
+    public void setCopyOnWrite(boolean copyOnWrite) {
+        this.copyOnWrite = copyOnWrite;
+    }
+
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
     public final void tryBreak() throws IllegalRenderStateException {
         renderState.tryBreak(renderID);
     }
@@ -107,7 +124,7 @@ public class ShaderDispatcher {
             }
 
             boolean[] renderedPixels = new boolean[bitMap.getLength()];
-            original = bitMap.cloneCanvas(); // update tex2D to the canvas with applied previous shaders
+            updateOriginal(tex2DOriginal); // update tex2D to the canvas with applied previous shaders
             final int rpy = bitMap.getHeight() / Runtime.getRuntime().availableProcessors() + 1;
             final int xRes = bitMap.getWidth();
             final int yRes = bitMap.getHeight();
@@ -132,8 +149,8 @@ public class ShaderDispatcher {
 
                                 if (!renderedPixels[i]) {
                                     renderedPixels[i] = true;
-                                    HexColor c = renderer.execute(x, py, xRes, yRes, (double) x / xRes, (double) py / yRes, i, HexColor.fromInteger(original.pipette(i)), time);
-                                    canvas[i] = c == null ? 0 : c.toRGB().toInteger();
+                                    HexColor c = renderer.execute(x, py, xRes, yRes, (double) x / xRes, (double) py / yRes, i, HexColor.fromInteger(source(i)), time);
+                                    write(canvas, i, c == null ? 0 : c.toRGB().toInteger());
                                     renderedAmount.getAndIncrement();
                                 }
                             }
@@ -147,8 +164,8 @@ public class ShaderDispatcher {
 
                             if (!renderedPixels[i]) {
                                 renderedPixels[i] = true;
-                                HexColor c = renderer.execute((int) p.x(), (int) p.y(), xRes, yRes, p.x() / xRes, p.y() / yRes, i, HexColor.fromInteger(original.pipette(i)), time);
-                                canvas[i] = c == null ? 0 : c.toRGB().toInteger();
+                                HexColor c = renderer.execute((int) p.x(), (int) p.y(), xRes, yRes, p.x() / xRes, p.y() / yRes, i, HexColor.fromInteger(source(i)), time);
+                                write(canvas, i, c == null ? 0 : c.toRGB().toInteger());
                                 renderedAmount.getAndIncrement();
                             }
                         }
@@ -171,19 +188,49 @@ public class ShaderDispatcher {
 
         }
 
+        snapshot = null;
         if (original != tex2DOriginal) {
+            original.releaseCanvas(CanvasPool.shared());
             original = tex2DOriginal; // revert to original canvas for reuse
         }
 
     }
 
 
+    /**
+     * Copies the canvas into tex2D on a pooled array, returning the previous copy of this dispatch to the pool.
+     */
+    private void updateOriginal(BitMap tex2DOriginal) {
+        if (copyOnWrite) {
+            snapshot = new IntTileSnapshot(bitMap);
+            return;
+        }
+        if (original != null && original != tex2DOriginal) {
+            original.releaseCanvas(CanvasPool.shared());
+        }
+        original = bitMap.cloneCanvas(CanvasPool.shared());
+    }
+
+    private int source(int i) {
+        return snapshot == null ? original.pipette(i) : snapshot.read(i);
+    }
+
+    private void write(int[] canvas, int i, int value) {
+        if (snapshot == null) {
+            canvas[i] = value;
+        } else {
+            snapshot.write(i, value);
+        }
+    }
+
     /**
      * 해당 셰이더가 적용되기 직전 좌표에 따른 색상을 구합니다. (왼쪽 위 : 0)
      * 적용될 셰이더가 여러 개일 경우, 이전에 사용한 모든 셰이더가 반영된 이미지를 대상으로 합니다.
      */
     public HexColor texture2D(int x, int y) {
-        return HexColor.fromInteger(original.pipette(AdvancedMath.restrict(0, bitMap.getWidth() - 1, x), AdvancedMath.restrict(0, bitMap.getHeight() - 1, y)));
+        x = AdvancedMath.restrict(0, bitMap.getWidth() - 1, x);
+        y = AdvancedMath.restrict(0, bitMap.getHeight() - 1, y);
+        return HexColor.fromInteger(snapshot == null ? original.pipette(x, y) : snapshot.read(x, y));
     }
 
 
@@ -201,13 +248,69 @@ public class ShaderDispatcher {
         tryBreak();
     }
 
+    /**
+     * Gets the copy of tex2D, the canvas before the current shader.
+     * tex2D is kept on a pooled array returned to {@link CanvasPool#shared()} after the shader, so it is never shared with the caller.
+     *
+     * @return the copy, or {@code null} if no shader is running
+     */
     public BitMap getOriginalBitMap() {
-        return original;
+        IntTileSnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            return bitMap.createAnother(snapshot.toMatrix().getCanvas());
+        }
+        BitMap original = this.original;
+        return original == null ? null : original.cloneCanvas();
     }
 
     public BitMap getBitMap() {
         return bitMap;
     }
 
+    /**
+     * Renders the off-heap canvas band by band. every band is copied into a heap {@link BitMap}, dispatched, and copied back.
+     * The renderers receive the coordinates and the resolution of the whole canvas, and the index in the band.
+     *
+     * @param bandHeight the number of the rows of a band
+     */
+    public static void dispatchBands(RenderState renderState, int renderID, OffHeapIntMatrix target, int bandHeight, ShaderRenderer... renderers) throws IllegalRenderStateException, InterruptedException {
+        int width = target.getWidth();
+        int height = target.getHeight();
+        bandHeight = Math.min(bandHeight, height);
+        if (bandHeight <= 0 || (long) width * bandHeight > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid band height : " + bandHeight);
+        }
+        int[] canvas = new int[width * bandHeight];
+
+        for (int y0 = 0; y0 < height; y0 += bandHeight) {
+            int rows = Math.min(bandHeight, height - y0);
+            if (rows != bandHeight) {
+                canvas = new int[width * rows];
+            }
+            target.readRows(y0, rows, canvas);
+            ShaderDispatcher dispatcher = new ShaderDispatcher(renderState, renderID, new BitMap(width, rows, canvas));
+            for (ShaderRenderer renderer : renderers) {
+                dispatcher.createRenderer(offset(renderer, y0, height));
+            }
+            dispatcher.dispatch();
+            renderState.tryBreak(renderID);
+            target.writeRows(y0, rows, canvas);
+        }
+    }
+
+    private static ShaderRenderer offset(ShaderRenderer renderer, int y0, int height) {
+        return new ShaderRenderer() {
+            @Override
+            public HexColor execute(int x, int y, int xRes, int yRes, double rx, double ry, int i, HexColor c, double t) throws IllegalRenderStateException {
+                return renderer.execute(x, y + y0, xRes, height, rx, (double) (y + y0) / height, i, c, t);
+            }
+
+            @Override
+            public boolean isValid() {
+                return renderer.isValid();
+            }
+        };
+    }
+
 
 }
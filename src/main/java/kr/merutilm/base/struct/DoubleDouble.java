@@ -0,0 +1,356 @@
+package kr.merutilm.base.struct;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Double-double number. the value is the unevaluated sum {@code hi + lo} where {@code |lo| <= ulp(hi) / 2},
+ * which gives about 106 bits of significand.
+ * <p>
+ * The record operations allocate. Use the {@link Builder} as an accumulator in inner loops.
+ */
+public record DoubleDouble(double hi, double lo) implements Struct<DoubleDouble> {
+
+    public static final DoubleDouble ZERO = new DoubleDouble(0, 0);
+    public static final DoubleDouble ONE = new DoubleDouble(1, 0);
+    public static final DoubleDouble PI = new DoubleDouble(3.141592653589793116e+00, 1.224646799147353207e-16);
+    public static final DoubleDouble HALF_PI = new DoubleDouble(1.570796326794896558e+00, 6.123233995736766036e-17);
+    public static final DoubleDouble LN2 = new DoubleDouble(6.931471805599452862e-01, 2.319046813846299558e-17);
+
+    /**
+     * {@link #exp()} divides the reduced argument by 2^this value before evaluating the series, then squares it back.
+     */
+    private static final int EXP_SQUARING = 9;
+    private static final double SERIES_EPSILON = 1e-33;
+
+    public static DoubleDouble valueOf(double v) {
+        return new DoubleDouble(v, 0);
+    }
+
+    public static DoubleDouble valueOf(BigDecimal v) {
+        double hi = v.doubleValue();
+        if (Double.isInfinite(hi)) {
+            return new DoubleDouble(hi, 0);
+        }
+        double lo = v.subtract(new BigDecimal(hi)).doubleValue();
+        return new Builder(hi, lo).build();
+    }
+
+    public static DoubleDouble valueOf(String v) {
+        return valueOf(new BigDecimal(v));
+    }
+
+    @Override
+    public Builder edit() {
+        return new Builder(hi, lo);
+    }
+
+    public static final class Builder implements StructBuilder<DoubleDouble> {
+        private double hi;
+        private double lo;
+
+        public Builder(double hi, double lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        public Builder() {
+            this(0, 0);
+        }
+
+        public double hi() {
+            return hi;
+        }
+
+        public double lo() {
+            return lo;
+        }
+
+        public Builder set(double hi, double lo) {
+            this.hi = hi;
+            this.lo = lo;
+            return this;
+        }
+
+        public Builder set(DoubleDouble v) {
+            return set(v.hi, v.lo);
+        }
+
+        public Builder set(Builder v) {
+            return set(v.hi, v.lo);
+        }
+
+        public Builder negate() {
+            hi = -hi;
+            lo = -lo;
+            return this;
+        }
+
+        public Builder add(double bh, double bl) {
+            double s = hi + bh;
+            double v = s - hi;
+            double e = (hi - (s - v)) + (bh - v);
+            double t = lo + bl;
+            v = t - lo;
+            double f = (lo - (t - v)) + (bl - v);
+            e += t;
+            double h = s + e;
+            e -= h - s;
+            e += f;
+            hi = h + e;
+            lo = e - (hi - h);
+            return this;
+        }
+
+        public Builder add(double v) {
+            return add(v, 0);
+        }
+
+        public Builder add(DoubleDouble v) {
+            return add(v.hi, v.lo);
+        }
+
+        public Builder add(Builder v) {
+            return add(v.hi, v.lo);
+        }
+
+        public Builder subtract(double bh, double bl) {
+            return add(-bh, -bl);
+        }
+
+        public Builder subtract(DoubleDouble v) {
+            return add(-v.hi, -v.lo);
+        }
+
+        public Builder subtract(Builder v) {
+            return add(-v.hi, -v.lo);
+        }
+
+        public Builder multiply(double bh, double bl) {
+            double p = hi * bh;
+            double e = Math.fma(hi, bh, -p);
+            e += hi * bl + lo * bh;
+            hi = p + e;
+            lo = e - (hi - p);
+            return this;
+        }
+
+        public Builder multiply(double v) {
+            return multiply(v, 0);
+        }
+
+        public Builder multiply(DoubleDouble v) {
+            return multiply(v.hi, v.lo);
+        }
+
+        public Builder multiply(Builder v) {
+            return multiply(v.hi, v.lo);
+        }
+
+        public Builder square() {
+            double p = hi * hi;
+            double e = Math.fma(hi, hi, -p);
+            e += 2 * hi * lo;
+            hi = p + e;
+            lo = e - (hi - p);
+            return this;
+        }
+
+        public Builder divide(double bh, double bl) {
+            double q1 = hi / bh;
+            // r = this - q1 * b
+            double p = q1 * bh;
+            double pe = Math.fma(q1, bh, -p) + q1 * bl;
+            double rh = hi - p;
+            double rl = (hi - (rh + p)) + (lo - pe);
+            double q2 = (rh + rl) / bh;
+            hi = q1 + q2;
+            lo = q2 - (hi - q1);
+            return this;
+        }
+
+        public Builder divide(double v) {
+            return divide(v, 0);
+        }
+
+        public Builder divide(DoubleDouble v) {
+            return divide(v.hi, v.lo);
+        }
+
+        public Builder divide(Builder v) {
+            return divide(v.hi, v.lo);
+        }
+
+        /**
+         * Multiplies by 2^n. exact.
+         */
+        public Builder scalb(int n) {
+            hi = Math.scalb(hi, n);
+            lo = Math.scalb(lo, n);
+            return this;
+        }
+
+        @Override
+        public DoubleDouble build() {
+            return new DoubleDouble(hi, lo);
+        }
+    }
+
+    public double doubleValue() {
+        return hi + lo;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+
+    public int signum() {
+        return hi == 0 ? (int) Math.signum(lo) : (int) Math.signum(hi);
+    }
+
+    public DoubleDouble negate() {
+        return new DoubleDouble(-hi, -lo);
+    }
+
+    public DoubleDouble add(DoubleDouble v) {
+        return edit().add(v).build();
+    }
+
+    public DoubleDouble add(double v) {
+        return edit().add(v).build();
+    }
+
+    public DoubleDouble subtract(DoubleDouble v) {
+        return edit().subtract(v).build();
+    }
+
+    public DoubleDouble multiply(DoubleDouble v) {
+        return edit().multiply(v).build();
+    }
+
+    public DoubleDouble multiply(double v) {
+        return edit().multiply(v).build();
+    }
+
+    public DoubleDouble square() {
+        return edit().square().build();
+    }
+
+    public DoubleDouble divide(DoubleDouble v) {
+        return edit().divide(v).build();
+    }
+
+    public DoubleDouble divide(double v) {
+        return edit().divide(v).build();
+    }
+
+    public DoubleDouble sqrt() {
+        if (hi <= 0) {
+            return hi == 0 ? ZERO : new DoubleDouble(Double.NaN, Double.NaN);
+        }
+        double x = Math.sqrt(hi);
+        // one Newton step : x + (a - x^2) / 2x
+        DoubleDouble r = subtract(new DoubleDouble(x, 0).square());
+        return new Builder(x, 0).add(r.hi / (2 * x)).build();
+    }
+
+    public DoubleDouble exp() {
+        if (hi > 709.8) {
+            return new DoubleDouble(Double.POSITIVE_INFINITY, 0);
+        }
+        if (hi < -745.2) {
+            return ZERO;
+        }
+        int k = (int) Math.round(hi / LN2.hi);
+        Builder r = edit().subtract(LN2.multiply(k)).scalb(-EXP_SQUARING);
+
+        // e^r - 1, which keeps the precision of small values through the squarings
+        Builder sum = new Builder().set(r);
+        Builder term = new Builder().set(r);
+        for (int n = 2; n < 30; n++) {
+            term.multiply(r).divide(n);
+            sum.add(term);
+            if (Math.abs(term.hi) < SERIES_EPSILON) {
+                break;
+            }
+        }
+        // (e^r)^2 - 1 = (e^r - 1) * (e^r - 1 + 2)
+        for (int i = 0; i < EXP_SQUARING; i++) {
+            Builder s2 = new Builder().set(sum).add(2);
+            sum.multiply(s2);
+        }
+        return sum.add(1).scalb(k).build();
+    }
+
+    public DoubleDouble log() {
+        if (hi <= 0) {
+            return new DoubleDouble(hi == 0 ? Double.NEGATIVE_INFINITY : Double.NaN, 0);
+        }
+        double x = Math.log(hi);
+        // Newton step : x + a * e^-x - 1
+        return multiply(new DoubleDouble(-x, 0).exp()).add(-1).add(x);
+    }
+
+    public DoubleDouble sin() {
+        return sinCos(true);
+    }
+
+    public DoubleDouble cos() {
+        return sinCos(false);
+    }
+
+    private DoubleDouble sinCos(boolean sin) {
+        if (!Double.isFinite(hi)) {
+            return new DoubleDouble(Double.NaN, Double.NaN);
+        }
+        long k = Math.round(hi / HALF_PI.hi);
+        Builder r = edit().subtract(HALF_PI.multiply(k));
+        int quadrant = (int) Math.floorMod(k, 4L) + (sin ? 0 : 1);
+
+        Builder r2 = new Builder().set(r).square();
+        Builder result;
+        Builder term;
+        int n;
+        if (quadrant % 2 == 0) { // sin(r)
+            result = new Builder().set(r);
+            term = new Builder().set(r);
+            n = 1;
+        } else { // cos(r)
+            result = new Builder(1, 0);
+            term = new Builder(1, 0);
+            n = 0;
+        }
+        for (; n < 60; n += 2) {
+            term.multiply(r2).divide((n + 1) * (n + 2)).negate();
+            result.add(term);
+            if (Math.abs(term.hi) < SERIES_EPSILON) {
+                break;
+            }
+        }
+        return quadrant % 4 >= 2 ? result.negate().build() : result.build();
+    }
+
+    /**
+     * Returns the angle of the point (x, y).
+     */
+    public static DoubleDouble atan2(DoubleDouble y, DoubleDouble x) {
+        if (x.hi == 0 && y.hi == 0) {
+            return ZERO;
+        }
+        DoubleDouble t = new DoubleDouble(Math.atan2(y.hi, x.hi), 0);
+        DoubleDouble s = t.sin();
+        DoubleDouble c = t.cos();
+        // Newton step : t + (y cos t - x sin t) / (x cos t + y sin t)
+        DoubleDouble num = y.multiply(c).subtract(x.multiply(s));
+        DoubleDouble den = x.multiply(c).add(y.multiply(s));
+        return t.add(num.divide(den));
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return toBigDecimal().round(new MathContext(32)).toString();
+    }
+}
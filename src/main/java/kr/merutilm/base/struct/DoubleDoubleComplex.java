@@ -0,0 +1,245 @@
+package kr.merutilm.base.struct;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Complex number of {@link DoubleDouble} parts, for coordinates deeper than the precision of {@link Complex}.
+ * <p>
+ * The record operations allocate. The {@link Builder} keeps its parts and temporaries in place,
+ * so the arithmetic operations of the builder do not allocate and can be used in inner loops.
+ */
+public record DoubleDoubleComplex(DoubleDouble re, DoubleDouble im) implements Struct<DoubleDoubleComplex> {
+
+    public static final DoubleDoubleComplex ZERO = new DoubleDoubleComplex(DoubleDouble.ZERO, DoubleDouble.ZERO);
+
+    public static final DoubleDoubleComplex ONE = new DoubleDoubleComplex(DoubleDouble.ONE, DoubleDouble.ZERO);
+
+    public DoubleDoubleComplex(double re, double im) {
+        this(DoubleDouble.valueOf(re), DoubleDouble.valueOf(im));
+    }
+
+    public static DoubleDoubleComplex valueOf(Complex c) {
+        return new DoubleDoubleComplex(c.re(), c.im());
+    }
+
+    public static DoubleDoubleComplex valueOf(String re, String im) {
+        return new DoubleDoubleComplex(DoubleDouble.valueOf(re), DoubleDouble.valueOf(im));
+    }
+
+    @Override
+    public Builder edit() {
+        return new Builder(re, im);
+    }
+
+    public static final class Builder implements StructBuilder<DoubleDoubleComplex> {
+        private final DoubleDouble.Builder re;
+        private final DoubleDouble.Builder im;
+        private final DoubleDouble.Builder t1 = new DoubleDouble.Builder();
+        private final DoubleDouble.Builder t2 = new DoubleDouble.Builder();
+
+        public Builder(DoubleDouble re, DoubleDouble im) {
+            this.re = re.edit();
+            this.im = im.edit();
+        }
+
+        public Builder() {
+            this(DoubleDouble.ZERO, DoubleDouble.ZERO);
+        }
+
+        public Builder set(DoubleDoubleComplex c) {
+            re.set(c.re);
+            im.set(c.im);
+            return this;
+        }
+
+        public Builder set(Builder c) {
+            re.set(c.re);
+            im.set(c.im);
+            return this;
+        }
+
+        public Builder set(double re, double im) {
+            this.re.set(re, 0);
+            this.im.set(im, 0);
+            return this;
+        }
+
+        public Builder add(DoubleDoubleComplex c) {
+            re.add(c.re);
+            im.add(c.im);
+            return this;
+        }
+
+        public Builder add(Builder c) {
+            re.add(c.re);
+            im.add(c.im);
+            return this;
+        }
+
+        public Builder add(double r, double i) {
+            re.add(r);
+            im.add(i);
+            return this;
+        }
+
+        public Builder subtract(DoubleDoubleComplex c) {
+            re.subtract(c.re);
+            im.subtract(c.im);
+            return this;
+        }
+
+        public Builder subtract(Builder c) {
+            re.subtract(c.re);
+            im.subtract(c.im);
+            return this;
+        }
+
+        public Builder multiply(DoubleDoubleComplex c) {
+            return multiply(c.re.hi(), c.re.lo(), c.im.hi(), c.im.lo());
+        }
+
+        public Builder multiply(Builder c) {
+            return multiply(c.re.hi(), c.re.lo(), c.im.hi(), c.im.lo());
+        }
+
+        private Builder multiply(double crh, double crl, double cih, double cil) {
+            t1.set(re).multiply(crh, crl);
+            t2.set(im).multiply(cih, cil);
+            t1.subtract(t2);
+            t2.set(re).multiply(cih, cil);
+            im.multiply(crh, crl).add(t2);
+            re.set(t1);
+            return this;
+        }
+
+        public Builder multiply(double m) {
+            re.multiply(m);
+            im.multiply(m);
+            return this;
+        }
+
+        public Builder square() {
+            t1.set(re).multiply(im).scalb(1);
+            re.square().subtract(t2.set(im).square());
+            im.set(t1);
+            return this;
+        }
+
+        public Builder divide(DoubleDoubleComplex c) {
+            return divide(c.re.hi(), c.re.lo(), c.im.hi(), c.im.lo());
+        }
+
+        public Builder divide(Builder c) {
+            return divide(c.re.hi(), c.re.lo(), c.im.hi(), c.im.lo());
+        }
+
+        private Builder divide(double crh, double crl, double cih, double cil) {
+            // multiply by the conjugate, then divide by |c|^2
+            multiply(crh, crl, -cih, -cil);
+            t1.set(crh, crl).square().add(t2.set(cih, cil).square());
+            re.divide(t1);
+            im.divide(t1);
+            return this;
+        }
+
+        public Builder divide(double d) {
+            re.divide(d);
+            im.divide(d);
+            return this;
+        }
+
+        /**
+         * Evaluates e^z. the transcendental functions allocate temporaries.
+         */
+        public Builder exp() {
+            return set(build().exp());
+        }
+
+        /**
+         * Evaluates the principal value of ln(z). the transcendental functions allocate temporaries.
+         */
+        public Builder ln() {
+            return set(build().ln());
+        }
+
+        /**
+         * Gets the squared radius, rounded to double.
+         */
+        public double radius2() {
+            double r = re.hi() + re.lo();
+            double i = im.hi() + im.lo();
+            return r * r + i * i;
+        }
+
+        public double reHi() {
+            return re.hi();
+        }
+
+        public double imHi() {
+            return im.hi();
+        }
+
+        @Override
+        public DoubleDoubleComplex build() {
+            return new DoubleDoubleComplex(re.build(), im.build());
+        }
+    }
+
+    public DoubleDoubleComplex add(DoubleDoubleComplex c) {
+        return new DoubleDoubleComplex(re.add(c.re), im.add(c.im));
+    }
+
+    public DoubleDoubleComplex subtract(DoubleDoubleComplex c) {
+        return new DoubleDoubleComplex(re.subtract(c.re), im.subtract(c.im));
+    }
+
+    public DoubleDoubleComplex multiply(double m) {
+        return new DoubleDoubleComplex(re.multiply(m), im.multiply(m));
+    }
+
+    public DoubleDoubleComplex multiply(DoubleDoubleComplex c) {
+        return edit().multiply(c).build();
+    }
+
+    public DoubleDoubleComplex divide(double d) {
+        return new DoubleDoubleComplex(re.divide(d), im.divide(d));
+    }
+
+    public DoubleDoubleComplex divide(DoubleDoubleComplex c) {
+        return edit().divide(c).build();
+    }
+
+    public DoubleDoubleComplex exp() {
+        DoubleDouble m = re.exp();
+        return new DoubleDoubleComplex(m.multiply(im.cos()), m.multiply(im.sin()));
+    }
+
+    public DoubleDoubleComplex ln() {
+        DoubleDouble r2 = re.square().add(im.square());
+        return new DoubleDoubleComplex(r2.log().divide(2), DoubleDouble.atan2(im, re));
+    }
+
+    public double radius2() {
+        return re.square().add(im.square()).doubleValue();
+    }
+
+    public double radius() {
+        return Math.sqrt(radius2());
+    }
+
+    public Complex toComplex() {
+        return new Complex(re.doubleValue(), im.doubleValue());
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        if (im.signum() > 0) {
+            return (re.signum() == 0 ? "" : re + "+") + im + "i";
+        }
+        if (im.signum() < 0) {
+            return (re.signum() == 0 ? "" : re.toString()) + im + "i";
+        }
+        return re.toString();
+    }
+}
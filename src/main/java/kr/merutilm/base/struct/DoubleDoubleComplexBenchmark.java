@@ -0,0 +1,117 @@
+package kr.merutilm.base.struct;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the escape-time loop {@code z = z^2 + c} of {@link Complex}, the {@link DoubleDoubleComplex} record,
+ * and the allocation-free {@link DoubleDoubleComplex.Builder}.
+ * <p>
+ * Every loop iterates the same grid of points around the main cardioid, after a warm-up round,
+ * and prints the time and the allocated bytes per iteration.
+ * Usage : {@code java -cp <classes> kr.merutilm.base.struct.DoubleDoubleComplexBenchmark [max iterations] [rounds]}
+ */
+public final class DoubleDoubleComplexBenchmark {
+
+    private static final int GRID = 64;
+    private static final double BAILOUT = 4;
+
+    private DoubleDoubleComplexBenchmark() {
+
+    }
+
+    @FunctionalInterface
+    private interface Loop {
+        /**
+         * Iterates the point until it escapes.
+         *
+         * @return the number of the iterations
+         */
+        long iterate(double re, double im, int maxIteration);
+    }
+
+    public static void main(String[] args) {
+        int maxIteration = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        run("Complex", DoubleDoubleComplexBenchmark::complex, maxIteration, rounds);
+        run("DoubleDoubleComplex", DoubleDoubleComplexBenchmark::doubleDoubleComplex, maxIteration, rounds);
+        run("DoubleDoubleComplex.Builder", DoubleDoubleComplexBenchmark::doubleDoubleBuilder, maxIteration, rounds);
+    }
+
+    private static long complex(double re, double im, int maxIteration) {
+        Complex c = new Complex(re, im);
+        Complex z = Complex.ZERO;
+        long iteration = 0;
+        while (iteration < maxIteration && z.radius2() < BAILOUT) {
+            z = z.multiply(z).add(c);
+            iteration++;
+        }
+        return iteration;
+    }
+
+    private static long doubleDoubleComplex(double re, double im, int maxIteration) {
+        DoubleDoubleComplex c = new DoubleDoubleComplex(re, im);
+        DoubleDoubleComplex z = DoubleDoubleComplex.ZERO;
+        long iteration = 0;
+        while (iteration < maxIteration && z.radius2() < BAILOUT) {
+            z = z.multiply(z).add(c);
+            iteration++;
+        }
+        return iteration;
+    }
+
+    private static long doubleDoubleBuilder(double re, double im, int maxIteration) {
+        DoubleDoubleComplex c = new DoubleDoubleComplex(re, im);
+        DoubleDoubleComplex.Builder z = new DoubleDoubleComplex.Builder();
+        long iteration = 0;
+        while (iteration < maxIteration && z.radius2() < BAILOUT) {
+            z.square().add(c);
+            iteration++;
+        }
+        return iteration;
+    }
+
+    private static void run(String name, Loop loop, int maxIteration, int rounds) {
+        sweep(loop, maxIteration); // warm-up, so the loop is compiled before it is measured
+        long bestNanos = Long.MAX_VALUE;
+        long iterations = 0;
+        long bytes = 0;
+        for (int i = 0; i < rounds; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            iterations = sweep(loop, maxIteration);
+            long nanos = System.nanoTime() - start;
+            bytes = allocated < 0 ? -1 : allocatedBytes() - allocated;
+            bestNanos = Math.min(bestNanos, nanos);
+        }
+        System.out.printf("%-28s %8.2f ns/iter %8.2f bytes/iter (%d iterations)%n",
+                name, (double) bestNanos / iterations, bytes < 0 ? Double.NaN : (double) bytes / iterations, iterations);
+    }
+
+    /**
+     * Iterates every point of the grid over {@code [-2, 0.5] x [-1.25, 1.25]}.
+     */
+    private static long sweep(Loop loop, int maxIteration) {
+        long iterations = 0;
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                iterations += loop.iterate(-2 + 2.5 * (x + 0.5) / GRID, -1.25 + 2.5 * (y + 0.5) / GRID, maxIteration);
+            }
+        }
+        return iterations;
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread so far.
+     *
+     * @return the bytes, or {@code -1} if the virtual machine does not measure them
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()) {
+            return sun.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
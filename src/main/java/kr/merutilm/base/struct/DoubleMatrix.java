@@ -3,6 +3,7 @@ package kr.merutilm.base.struct;
 import java.util.Arrays;
 
 import kr.merutilm.base.util.AdvancedMath;
+import kr.merutilm.base.util.CanvasPool;
 
 
 public class DoubleMatrix implements Matrix{
@@ -27,6 +28,13 @@ public class DoubleMatrix implements Matrix{
         this(width, height, new double[width * height]);
     }
 
+    /**
+     * Creates the matrix on an array borrowed from the pool. the values are not cleared.
+     */
+    public static DoubleMatrix borrow(CanvasPool pool, int width, int height){
+        return new DoubleMatrix(width, height, pool.borrowDouble(width * height));
+    }
+
 
     public double pipette(int i){
         return canvas[i];
@@ -83,6 +91,29 @@ public class DoubleMatrix implements Matrix{
         return new DoubleMatrix(width, height, captureCurrentCanvas());
     }
 
+    /**
+     * Copies the canvas into an array borrowed from the pool.
+     */
+    public double[] captureCurrentCanvas(CanvasPool pool){
+        double[] copy = pool.borrowDouble(canvas.length);
+        System.arraycopy(canvas, 0, copy, 0, canvas.length);
+        return copy;
+    }
+
+    /**
+     * Copies the matrix into an array borrowed from the pool. release it with {@link #releaseCanvas(CanvasPool)} when done.
+     */
+    public DoubleMatrix cloneCanvas(CanvasPool pool){
+        return createAnother(captureCurrentCanvas(pool));
+    }
+
+    /**
+     * Returns the canvas to the pool. the matrix must not be used after.
+     */
+    public void releaseCanvas(CanvasPool pool){
+        pool.release(canvas);
+    }
+
     public DoubleMatrix createAnother(double[] another){
         return new DoubleMatrix(width, height, another);
     }
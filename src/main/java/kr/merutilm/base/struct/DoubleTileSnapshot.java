@@ -0,0 +1,132 @@
+package kr.merutilm.base.struct;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Copy-on-write snapshot of a {@link DoubleMatrix}, duplicated by tiles of 64x64.
+ * <p>
+ * Every write to the matrix must go through {@link #write(int, double)} while the snapshot is in use.
+ * The first write changing a tile copies the tile before it is applied, so {@link #read(int)} keeps returning the values at the creation,
+ * and the tiles never written are never copied. Reads and writes are safe from any number of threads.
+ */
+public final class DoubleTileSnapshot {
+
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int LOCK_STRIPES = 64;
+
+    private final DoubleMatrix matrix;
+    private final double[] canvas;
+    private final int width;
+    private final int tilesX;
+    private final AtomicReferenceArray<double[]> copies;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public DoubleTileSnapshot(DoubleMatrix matrix) {
+        this.matrix = matrix;
+        this.canvas = matrix.getCanvas();
+        this.width = matrix.getWidth();
+        this.tilesX = (width - 1) / TILE_SIZE + 1;
+        int tilesY = (matrix.getHeight() - 1) / TILE_SIZE + 1;
+        this.copies = new AtomicReferenceArray<>(tilesX * tilesY);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public DoubleMatrix getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Gets the value of the matrix when the snapshot was created.
+     */
+    public double read(int i) {
+        return read(i % width, i / width);
+    }
+
+    public double read(int x, int y) {
+        int tile = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        double[] copy = copies.get(tile);
+        if (copy != null) {
+            return copy[(y & TILE_MASK) << TILE_SHIFT | x & TILE_MASK];
+        }
+        double value = canvas[y * width + x];
+        // the tile is always published before its first write, so the value is the original when the tile is still not copied
+        VarHandle.acquireFence();
+        copy = copies.get(tile);
+        return copy == null ? value : copy[(y & TILE_MASK) << TILE_SHIFT | x & TILE_MASK];
+    }
+
+    /**
+     * Writes the value to the matrix, copying its tile first if it is the first change of the tile.
+     */
+    public void write(int i, double value) {
+        write(i % width, i / width, i, value);
+    }
+
+    public void write(int x, int y, double value) {
+        write(x, y, y * width + x, value);
+    }
+
+    private void write(int x, int y, int i, double value) {
+        if (Double.doubleToRawLongBits(canvas[i]) == Double.doubleToRawLongBits(value)) {
+            return;
+        }
+        int tile = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        if (copies.get(tile) == null) {
+            synchronized (locks[tile % LOCK_STRIPES]) {
+                if (copies.get(tile) == null) {
+                    copies.set(tile, copyTile(tile));
+                    VarHandle.fullFence();
+                }
+            }
+        }
+        canvas[i] = value;
+    }
+
+    private double[] copyTile(int tile) {
+        int x0 = (tile % tilesX) << TILE_SHIFT;
+        int y0 = (tile / tilesX) << TILE_SHIFT;
+        int w = Math.min(TILE_SIZE, width - x0);
+        int h = Math.min(TILE_SIZE, matrix.getHeight() - y0);
+        double[] copy = new double[TILE_SIZE * TILE_SIZE];
+        for (int r = 0; r < h; r++) {
+            System.arraycopy(canvas, (y0 + r) * width + x0, copy, r << TILE_SHIFT, w);
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the number of the tiles copied by the writes.
+     */
+    public int getCopiedTiles() {
+        int count = 0;
+        for (int i = 0; i < copies.length(); i++) {
+            if (copies.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getTiles() {
+        return copies.length();
+    }
+
+    /**
+     * Materializes the snapshot into a new matrix.
+     */
+    public DoubleMatrix toMatrix() {
+        int height = matrix.getHeight();
+        double[] result = new double[canvas.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                result[y * width + x] = read(x, y);
+            }
+        }
+        return matrix.createAnother(result);
+    }
+}
@@ -283,23 +283,82 @@ public record HexColor(int r, int g, int b, int a) implements Struct<HexColor> {
             return this;
         }
 
-        HexColor thisColor = toRGB();
+        return fromInteger(blend(toInteger(), blend.toInteger(), colorBlendMode, opacity));
+    }
+
+    /**
+     * Blends the packed colors like {@link #blend(ColorBlendMode, HexColor, double)}, without creating any color.
+     * The channels are blended by the tables of {@link ColorBlendMode}.
+     *
+     * @param base  the ARGB base color
+     * @param blend the ARGB blend color
+     * @return the opaque ARGB result
+     */
+    public static int blend(int base, int blend, ColorBlendMode colorBlendMode, double opacity) {
+        if (opacity == 0) {
+            return base;
+        }
+
+        int thisColor = intRGB(base);
+        int result;
+        double ratio;
         switch (colorBlendMode) {
             case NORMAL -> {
-                double ratio = AdvancedMath.restrict(0, 1, opacity * blend.a() / MAX);
-                return ratioDivide(thisColor, get(blend.r, blend.g, blend.b), ratio);
+                ratio = Math.min(1, Math.max(0, opacity * intA(blend) / MAX));
+                result = blend | 0xff000000;
             }
             case LINEAR_DODGE, LINEAR_BURN -> { // Is it the formula for Linear-Blend mode??
-                double ratio = AdvancedMath.restrict(0, 1, opacity);
-                HexColor result = thisColor.functionExceptAlpha(blend.toRGB(), colorBlendMode.function::blend);
-                return ratioDivide(thisColor, result, ratio);
+                ratio = Math.min(1, Math.max(0, opacity));
+                result = blendChannels(thisColor, intRGB(blend), colorBlendMode);
             }
             default -> {
-                double ratio = AdvancedMath.restrict(0, 1, opacity * blend.a() / MAX);
-                HexColor result = thisColor.functionExceptAlpha(blend, colorBlendMode.function::blend);
-                return ratioDivide(thisColor, result, ratio);
+                ratio = Math.min(1, Math.max(0, opacity * intA(blend) / MAX));
+                result = blendChannels(thisColor, blend, colorBlendMode);
             }
         }
+        if (ratio == 0) {
+            return thisColor;
+        }
+        if (ratio == 1) {
+            return result;
+        }
+        int r = (int) (intR(thisColor) + ratio * (intR(result) - intR(thisColor)));
+        int g = (int) (intG(thisColor) + ratio * (intG(result) - intG(thisColor)));
+        int b = (int) (intB(thisColor) + ratio * (intB(result) - intB(thisColor)));
+        return toInteger(r, g, b);
+    }
+
+    /**
+     * Removes the alpha channel like {@link #toRGB()}.
+     */
+    private static int intRGB(int c) {
+        int a = intA(c);
+        if (a == MAX) {
+            return c;
+        }
+        byte[] table = AlphaTable.TABLE;
+        int row = a << 8;
+        return toInteger(table[row | intR(c)] & 0xff, table[row | intG(c)] & 0xff, table[row | intB(c)] & 0xff);
+    }
+
+    /**
+     * The channels multiplied by alpha as {@link #toRGB()} does, indexed by {@code alpha << 8 | channel}. built on the first use.
+     */
+    private static final class AlphaTable {
+        private static final byte[] TABLE = new byte[(MAX + 1) * (MAX + 1)];
+
+        static {
+            for (int a = 0; a <= MAX; a++) {
+                double multiplier = a / 255.0;
+                for (int c = 0; c <= MAX; c++) {
+                    TABLE[a << 8 | c] = (byte) (int) (c * multiplier);
+                }
+            }
+        }
+    }
+
+    private static int blendChannels(int base, int blend, ColorBlendMode colorBlendMode) {
+        return toInteger(colorBlendMode.blend(intR(base), intR(blend)), colorBlendMode.blend(intG(base), intG(blend)), colorBlendMode.blend(intB(base), intB(blend)), intA(base));
     }
 
     public static HexColor average(HexColor... colors) {
@@ -454,6 +513,37 @@ public record HexColor(int r, int g, int b, int a) implements Struct<HexColor> {
         b = (int)(b * multiplier);
         return toInteger(r, g, b, MAX);
     }
+    /**
+     * Multiplies the color channels by alpha.
+     */
+    public static int premultiply(int c) {
+        int a = c >>> 24;
+        if (a == 255) {
+            return c;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = ((c >> 16 & 0xff) * a + 127) / 255;
+        int g = ((c >> 8 & 0xff) * a + 127) / 255;
+        int b = ((c & 0xff) * a + 127) / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Divides the color channels by alpha.
+     */
+    public static int unpremultiply(int c) {
+        int a = c >>> 24;
+        if (a == 255 || a == 0) {
+            return c;
+        }
+        int r = Math.min(255, ((c >> 16 & 0xff) * 255 + a / 2) / a);
+        int g = Math.min(255, ((c >> 8 & 0xff) * 255 + a / 2) / a);
+        int b = Math.min(255, ((c & 0xff) * 255 + a / 2) / a);
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
     public static int safetyFix(int value) {
         return AdvancedMath.restrict(0, 255, value);
     }
@@ -513,10 +603,36 @@ public record HexColor(int r, int g, int b, int a) implements Struct<HexColor> {
         VIVID_LIGHT((a, b) -> b < 0.5 ? 1 - Math.min(1, (1 - a) / (2 * b)) : Math.min(1, a / (1 - 2 * b))),
         DIVIDE((a, b) -> b == 0 ? 1 : Math.min(1, a / b));
         private final BlendFunction function;
+        /**
+         * The results of every pair of the channels, indexed by {@code base << 8 | blend}. built on the first use.
+         */
+        private volatile byte[] table;
 
         ColorBlendMode(BlendFunction function) {
             this.function = function;
         }
+
+        /**
+         * Blends a color channel, the blend color over the base color. the values are from 0 to 255.
+         */
+        public int blend(int base, int blend) {
+            return table()[base << 8 | blend] & 0xff;
+        }
+
+        private byte[] table() {
+            byte[] table = this.table;
+            if (table == null) {
+                // building twice by a race is harmless, both tables are the same
+                table = new byte[(MAX + 1) * (MAX + 1)];
+                for (int base = 0; base <= MAX; base++) {
+                    for (int blend = 0; blend <= MAX; blend++) {
+                        table[base << 8 | blend] = (byte) safetyFix(function.blend(base, blend));
+                    }
+                }
+                this.table = table;
+            }
+            return table;
+        }
     }
 
     @FunctionalInterface
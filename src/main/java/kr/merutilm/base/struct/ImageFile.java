@@ -3,6 +3,10 @@ package kr.merutilm.base.struct;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
+
+import kr.merutilm.base.io.BitMap;
+import kr.merutilm.base.io.ImageDecoder;
+
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -46,6 +50,16 @@ public record ImageFile(@Nonnull String name) implements Struct<ImageFile> {
         File file = getFile(parent);
         return file == null ? null : ImageIO.read(file);
     }
+
+    /**
+     * Reads the image straight into a {@link BitMap} with {@link ImageDecoder}.
+     */
+    @Nullable
+    public BitMap getBitMap(String parent) throws IOException {
+        File file = getFile(parent);
+        return file == null ? null : ImageDecoder.read(file);
+    }
+
     public File getFile(String parent){
         File file = new File(parent, toString().replace("\\\\", "/"));
         if(!file.exists() || file.isDirectory()){
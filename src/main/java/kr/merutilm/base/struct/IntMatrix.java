@@ -2,6 +2,8 @@ package kr.merutilm.base.struct;
 
 import java.util.Arrays;
 
+import kr.merutilm.base.util.CanvasPool;
+
 
 public class IntMatrix implements Matrix{
     protected final int width;
@@ -63,6 +65,29 @@ public class IntMatrix implements Matrix{
         return new IntMatrix(width, height, captureCurrentCanvas());
     }
 
+    /**
+     * Copies the canvas into an array borrowed from the pool.
+     */
+    public int[] captureCurrentCanvas(CanvasPool pool){
+        int[] copy = pool.borrowInt(canvas.length);
+        System.arraycopy(canvas, 0, copy, 0, canvas.length);
+        return copy;
+    }
+
+    /**
+     * Copies the matrix into an array borrowed from the pool. release it with {@link #releaseCanvas(CanvasPool)} when done.
+     */
+    public IntMatrix cloneCanvas(CanvasPool pool){
+        return createAnother(captureCurrentCanvas(pool));
+    }
+
+    /**
+     * Returns the canvas to the pool. the matrix must not be used after.
+     */
+    public void releaseCanvas(CanvasPool pool){
+        pool.release(canvas);
+    }
+
     public IntMatrix createAnother(int[] another){
         return new IntMatrix(width, height, another);
     }
@@ -8,6 +8,13 @@ public interface Matrix {
     int getHeight();
     int getLength();
 
+    /**
+     * Gets the number of the elements, which can exceed {@link Integer#MAX_VALUE} for the off-heap matrices.
+     */
+    default long getLongLength() {
+        return (long) getWidth() * getHeight();
+    }
+
     default int convertLocation(int x, int y) {
         return convertLocation(x, y, getWidth(), getHeight());
     }
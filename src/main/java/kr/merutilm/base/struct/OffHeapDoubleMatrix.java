@@ -0,0 +1,69 @@
+package kr.merutilm.base.struct;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The off-heap {@link Matrix} counterpart of {@link DoubleMatrix}, holding the double values outside the heap.
+ * It is not a {@link DoubleMatrix}, and cannot be used where one is expected.
+ */
+public class OffHeapDoubleMatrix extends OffHeapMatrix {
+
+    private final DoubleBuffer[] views;
+
+    public OffHeapDoubleMatrix(int width, int height) {
+        super(width, height, Double.BYTES);
+        this.views = new DoubleBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            views[i] = chunks[i].asDoubleBuffer();
+        }
+    }
+
+    public double pipette(long i) {
+        return views[(int) (i >> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+    }
+
+    public double pipette(int x, int y) {
+        return pipette(index(x, y));
+    }
+
+    public void set(long i, double value) {
+        views[(int) (i >> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+    }
+
+    public void set(int x, int y, double value) {
+        set(index(x, y), value);
+    }
+
+    public void fill(double value) {
+        for (DoubleBuffer view : views) {
+            for (int i = 0; i < view.capacity(); i++) {
+                view.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Copies the rows into the array.
+     */
+    public void readRows(int y, int rows, double[] target) {
+        checkRows(y, rows, target.length);
+        forEachSpan(y, rows, (chunk, position, offset, length) -> views[chunk].get(position, target, offset, length));
+    }
+
+    /**
+     * Copies the array into the rows.
+     */
+    public void writeRows(int y, int rows, double[] source) {
+        checkRows(y, rows, source.length);
+        forEachSpan(y, rows, (chunk, position, offset, length) -> views[chunk].put(position, source, offset, length));
+    }
+
+    /**
+     * Copies the rows into a new heap matrix.
+     */
+    public DoubleMatrix band(int y, int rows) {
+        double[] canvas = new double[Math.multiplyExact(width, rows)];
+        readRows(y, rows, canvas);
+        return new DoubleMatrix(width, rows, canvas);
+    }
+}
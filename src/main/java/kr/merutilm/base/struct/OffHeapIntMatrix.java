@@ -0,0 +1,70 @@
+package kr.merutilm.base.struct;
+
+import java.nio.IntBuffer;
+
+/**
+ * The off-heap {@link Matrix} counterpart of {@link IntMatrix}, holding the int values outside the heap,
+ * such as the packed ARGB canvas too large for a {@link kr.merutilm.base.io.BitMap}.
+ * It is not an {@link IntMatrix}, and cannot be used where one is expected.
+ */
+public class OffHeapIntMatrix extends OffHeapMatrix {
+
+    private final IntBuffer[] views;
+
+    public OffHeapIntMatrix(int width, int height) {
+        super(width, height, Integer.BYTES);
+        this.views = new IntBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            views[i] = chunks[i].asIntBuffer();
+        }
+    }
+
+    public int pipette(long i) {
+        return views[(int) (i >> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+    }
+
+    public int pipette(int x, int y) {
+        return pipette(index(x, y));
+    }
+
+    public void set(long i, int value) {
+        views[(int) (i >> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+    }
+
+    public void set(int x, int y, int value) {
+        set(index(x, y), value);
+    }
+
+    public void fill(int value) {
+        for (IntBuffer view : views) {
+            for (int i = 0; i < view.capacity(); i++) {
+                view.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Copies the rows into the array.
+     */
+    public void readRows(int y, int rows, int[] target) {
+        checkRows(y, rows, target.length);
+        forEachSpan(y, rows, (chunk, position, offset, length) -> views[chunk].get(position, target, offset, length));
+    }
+
+    /**
+     * Copies the array into the rows.
+     */
+    public void writeRows(int y, int rows, int[] source) {
+        checkRows(y, rows, source.length);
+        forEachSpan(y, rows, (chunk, position, offset, length) -> views[chunk].put(position, source, offset, length));
+    }
+
+    /**
+     * Copies the rows into a new heap matrix.
+     */
+    public IntMatrix band(int y, int rows) {
+        int[] canvas = new int[Math.multiplyExact(width, rows)];
+        readRows(y, rows, canvas);
+        return new IntMatrix(width, rows, canvas);
+    }
+}
@@ -0,0 +1,106 @@
+package kr.merutilm.base.struct;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Matrix stored outside the heap in direct buffers, for the canvases too large for a Java array.
+ * <p>
+ * The elements are split into chunks of {@code 2^27} elements, each in its own direct buffer, and addressed by {@code long} index.
+ * The memory is released when the matrix is garbage collected.
+ */
+public abstract class OffHeapMatrix implements Matrix {
+
+    static final int CHUNK_SHIFT = 27;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    protected final int width;
+    protected final int height;
+    protected final ByteBuffer[] chunks;
+
+    protected OffHeapMatrix(int width, int height, int elementBytes) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Length : " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+
+        long length = (long) width * height;
+        int count = (int) ((length - 1) >> CHUNK_SHIFT) + 1;
+        this.chunks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long elements = Math.min(CHUNK_SIZE, length - ((long) i << CHUNK_SHIFT));
+            chunks[i] = ByteBuffer.allocateDirect((int) elements * elementBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @throws ArithmeticException When the number of the elements exceeds {@link Integer#MAX_VALUE}. use {@link #getLongLength()} instead
+     */
+    @Override
+    public int getLength() {
+        return Math.toIntExact(getLongLength());
+    }
+
+    /**
+     * Gets the index of the location, clamped to the matrix like {@link Matrix#convertLocation(int, int)}.
+     */
+    public long index(int x, int y) {
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+        return (long) width * y + x;
+    }
+
+    /**
+     * Gets the size of the direct memory of the matrix in bytes.
+     */
+    public long getMemorySize() {
+        long size = 0;
+        for (ByteBuffer chunk : chunks) {
+            size += chunk.capacity();
+        }
+        return size;
+    }
+
+    protected void checkRows(int y, int rows, int arrayLength) {
+        if (y < 0 || rows < 0 || y + rows > height) {
+            throw new IndexOutOfBoundsException("rows " + y + " to " + (y + rows) + " out of height " + height);
+        }
+        if ((long) rows * width > arrayLength) {
+            throw new IllegalArgumentException("Length mismatch : " + width + "x" + rows + ", but the provided array length is " + arrayLength);
+        }
+    }
+
+    /**
+     * Runs the copy over the chunks covering the rows.
+     */
+    protected void forEachSpan(int y, int rows, SpanConsumer consumer) {
+        long start = (long) width * y;
+        long end = start + (long) width * rows;
+        int offset = 0;
+        while (start < end) {
+            int chunk = (int) (start >> CHUNK_SHIFT);
+            int position = (int) (start & CHUNK_MASK);
+            int length = (int) Math.min(end - start, CHUNK_SIZE - position);
+            consumer.accept(chunk, position, offset, length);
+            start += length;
+            offset += length;
+        }
+    }
+
+    @FunctionalInterface
+    protected interface SpanConsumer {
+        void accept(int chunk, int position, int arrayOffset, int length);
+    }
+}
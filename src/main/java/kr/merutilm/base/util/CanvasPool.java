@@ -0,0 +1,165 @@
+package kr.merutilm.base.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the canvas arrays, bucketed by length, to reuse the full-size buffers of every frame instead of allocating them.
+ * <p>
+ * The borrowed arrays keep the values of their previous use, so they must be overwritten entirely.
+ * A released array must not be used anymore. The pool keeps at most {@code maxPerLength} arrays of each length,
+ * and {@code maxBytes} in total. the others are left to the garbage collector.
+ */
+public final class CanvasPool {
+
+    private static final CanvasPool SHARED = new CanvasPool(8, 512L << 20);
+
+    private final int maxPerLength;
+    private final long maxBytes;
+    private final Map<Integer, ConcurrentLinkedDeque<int[]>> intBuckets = new ConcurrentHashMap<>();
+    private final Map<Integer, ConcurrentLinkedDeque<double[]>> doubleBuckets = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param maxPerLength the maximum number of the arrays kept for each length
+     * @param maxBytes     the maximum size of the kept arrays in total
+     */
+    public CanvasPool(int maxPerLength, long maxBytes) {
+        this.maxPerLength = maxPerLength;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the pool shared by the dispatchers, keeping 8 arrays per length and 512MB in total.
+     */
+    public static CanvasPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * A borrowed array, returned to the pool when closed.
+     */
+    public static final class Lease<T> implements AutoCloseable {
+        private final T array;
+        private final Runnable release;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(T array, Runnable release) {
+            this.array = array;
+            this.release = release;
+        }
+
+        public T get() {
+            if (closed.get()) {
+                throw new IllegalStateException("the lease is already closed");
+            }
+            return array;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+
+    public int[] borrowInt(int length) {
+        int[] array = poll(intBuckets, length, Integer.BYTES);
+        return array == null ? new int[length] : array;
+    }
+
+    public double[] borrowDouble(int length) {
+        double[] array = poll(doubleBuckets, length, Double.BYTES);
+        return array == null ? new double[length] : array;
+    }
+
+    public Lease<int[]> leaseInt(int length) {
+        int[] array = borrowInt(length);
+        return new Lease<>(array, () -> release(array));
+    }
+
+    public Lease<double[]> leaseDouble(int length) {
+        double[] array = borrowDouble(length);
+        return new Lease<>(array, () -> release(array));
+    }
+
+    public void release(int[] array) {
+        offer(intBuckets, array, array.length, Integer.BYTES);
+    }
+
+    public void release(double[] array) {
+        offer(doubleBuckets, array, array.length, Double.BYTES);
+    }
+
+    private <T> T poll(Map<Integer, ConcurrentLinkedDeque<T>> buckets, int length, int elementBytes) {
+        ConcurrentLinkedDeque<T> bucket = buckets.get(length);
+        T array = bucket == null ? null : bucket.pollFirst();
+        if (array == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        retainedBytes.addAndGet(-(long) length * elementBytes);
+        hits.incrementAndGet();
+        return array;
+    }
+
+    private <T> void offer(Map<Integer, ConcurrentLinkedDeque<T>> buckets, T array, int length, int elementBytes) {
+        long bytes = (long) length * elementBytes;
+        ConcurrentLinkedDeque<T> bucket = buckets.computeIfAbsent(length, k -> new ConcurrentLinkedDeque<>());
+        // the size of the deque is not exact under contention, which only loosens the limit slightly
+        if (bucket.size() >= maxPerLength) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (retainedBytes.addAndGet(bytes) > maxBytes) {
+            retainedBytes.addAndGet(-bytes);
+            dropped.incrementAndGet();
+            return;
+        }
+        bucket.offerFirst(array);
+    }
+
+    /**
+     * Drops every kept array.
+     */
+    public void clear() {
+        intBuckets.clear();
+        doubleBuckets.clear();
+        retainedBytes.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of the released arrays not kept because the pool was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the ratio of the borrows served by the kept arrays.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+}